@@ -0,0 +1,11 @@
+import org.jspecify.annotations.NullMarked;
+
+@NullMarked
+module tm4javafx.bench {
+    requires static org.jspecify;
+
+    requires tm4javafx;
+    requires tm4javafx.demo;
+    requires javafx.controls;
+    requires jdk.management;
+}
@@ -0,0 +1,186 @@
+/* SPDX-License-Identifier: MIT */
+
+package tm4javafx.bench;
+
+import com.sun.management.ThreadMXBean;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import org.jspecify.annotations.Nullable;
+import tm4javafx.demo.GrammarLink;
+import tm4javafx.richtext.StyleProvider;
+
+/**
+ * Measures the number of bytes allocated by {@link StyleProvider#tokenize(String)},
+ * i.e. the grammar tokenization and the style resolution, per line and per token
+ * for each bundled grammar.
+ * <p>
+ * The measurement uses the per-thread allocation counter, so it's exact up to the
+ * TLAB granularity and doesn't depend on GC timing. Each grammar is warmed up first,
+ * so that the JIT-compiled code, which may eliminate some allocations, is measured.
+ * The results are compared against the budgets from "allocation-budgets.properties",
+ * and the process exits with a non-zero code if any budget is exceeded.
+ * <p>
+ * The budget keys are "&lt;grammar&gt;.bytesPerLine" and "&lt;grammar&gt;.bytesPerToken",
+ * where the grammar name is lowercase. A grammar without its own budgets fails the check,
+ * so that a newly added grammar can't go unchecked.
+ * <p>
+ * Usage: {@code mvn -Pbench -pl bench compile javafx:run -DmainClass=tm4javafx.bench.AllocationBenchmark}
+ * <p>
+ * Arguments:
+ * <li>{@code --update [file]} - writes the measured values plus 25% headroom
+ * as the new budgets to the given file, or to the committed properties file of the module,
+ * instead of checking them
+ * <p>
+ * Additional system properties:
+ * <li>{@code bench.lines} - the minimum number of lines of each document, 2000 by default
+ * <li>{@code bench.warmup} - the number of warm-up passes, 10 by default
+ */
+public final class AllocationBenchmark {
+
+    static final String BUDGETS = "/tm4javafx/bench/allocation-budgets.properties";
+    static final String BUDGETS_SOURCE = "src/main/resources" + BUDGETS;
+    static final double HEADROOM = 1.25;
+
+    record Result(String grammar, int lines, long tokens, long bytes) {
+
+        double bytesPerLine() {
+            return lines > 0 ? (double) bytes / lines : 0;
+        }
+
+        double bytesPerToken() {
+            return tokens > 0 ? (double) bytes / tokens : 0;
+        }
+    }
+
+    private final Properties budgets = BenchSupport.loadBudgets(BUDGETS);
+    private final int minLines = Integer.getInteger("bench.lines", 2_000);
+    private final int warmup = Integer.getInteger("bench.warmup", 10);
+    private final ThreadMXBean threadBean;
+
+    AllocationBenchmark() {
+        if (!(ManagementFactory.getThreadMXBean() instanceof ThreadMXBean bean)
+            || !bean.isThreadAllocatedMemorySupported()) {
+            throw new UnsupportedOperationException("Thread allocation counter is not supported by this JVM");
+        }
+
+        bean.setThreadAllocatedMemoryEnabled(true);
+        this.threadBean = bean;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path updatePath = null;
+        if (args.length > 0 && "--update".equals(args[0])) {
+            updatePath = BenchSupport.resolveModulePath(args.length > 1 ? args[1] : BUDGETS_SOURCE);
+        }
+
+        var benchmark = new AllocationBenchmark();
+        var results = new ArrayList<Result>();
+        for (var link : BenchSupport.findGrammars()) {
+            var result = benchmark.measure(link);
+            if (result != null) {
+                results.add(result);
+            }
+        }
+
+        if (updatePath != null) {
+            benchmark.writeBudgets(updatePath, results);
+            System.exit(0);
+        }
+
+        System.exit(benchmark.report(results));
+    }
+
+    //*************************************************************************
+
+    @Nullable Result measure(GrammarLink link) {
+        var text = BenchSupport.repeatToLines(link.getExampleText(""), minLines);
+        if (text.isEmpty()) {
+            return null;
+        }
+
+        var lines = BenchSupport.splitLines(text);
+        var provider = BenchSupport.createStyleProvider(link);
+
+        for (int i = 0; i < warmup; i++) {
+            tokenizeAll(provider, lines);
+        }
+
+        long threadId = Thread.currentThread().threadId();
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        long tokens = tokenizeAll(provider, lines);
+        long bytes = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+        return new Result(link.name().toLowerCase(Locale.ROOT), lines.length, tokens, bytes);
+    }
+
+    private static long tokenizeAll(StyleProvider provider, String[] lines) {
+        provider.setState(null);
+
+        long tokens = 0;
+        for (var line : lines) {
+            tokens += provider.tokenize(line).size();
+        }
+        return tokens;
+    }
+
+    private int report(List<Result> results) {
+        var failures = new ArrayList<String>();
+
+        System.out.printf("%-28s %8s %10s %14s %14s%n", "grammar", "lines", "tokens", "bytes/line", "bytes/token");
+        for (var r : results) {
+            System.out.printf("%-28s %8d %10d %14.1f %14.1f%n",
+                r.grammar(), r.lines(), r.tokens(), r.bytesPerLine(), r.bytesPerToken());
+
+            checkBudget(failures, r.grammar(), "bytesPerLine", r.bytesPerLine());
+            checkBudget(failures, r.grammar(), "bytesPerToken", r.bytesPerToken());
+        }
+
+        if (!failures.isEmpty()) {
+            System.out.println();
+            failures.forEach(System.out::println);
+            if (failures.stream().anyMatch(f -> f.startsWith("MISSING"))) {
+                System.out.println("Generate the missing budgets with --update and commit them");
+            }
+            return 1;
+        }
+        return 0;
+    }
+
+    private void checkBudget(List<String> failures, String grammar, String metric, double value) {
+        var budget = budgets.getProperty(grammar + "." + metric);
+        if (budget == null) {
+            failures.add(String.format("MISSING: %s.%s = %.1f, no budget", grammar, metric, value));
+            return;
+        }
+
+        double limit = Double.parseDouble(budget);
+        if (value > limit) {
+            failures.add(String.format("FAILED: %s.%s = %.1f, budget %.1f", grammar, metric, value, limit));
+        }
+    }
+
+    private void writeBudgets(Path path, List<Result> results) throws IOException {
+        var sb = new StringBuilder();
+        sb.append("# Allocation budgets in bytes, checked by AllocationBenchmark.\n");
+        sb.append("# Generated with --update, the measured values plus ")
+            .append(Math.round((HEADROOM - 1) * 100)).append("% headroom.\n");
+        sb.append("# Keys are \"<grammar>.bytesPerLine\" and \"<grammar>.bytesPerToken\", each can be\n");
+        sb.append("# overridden with -Dbench.<key>=<value>.\n\n");
+
+        for (var r : results) {
+            sb.append(r.grammar()).append(".bytesPerLine=")
+                .append(Math.round(r.bytesPerLine() * HEADROOM)).append('\n');
+            sb.append(r.grammar()).append(".bytesPerToken=")
+                .append(Math.round(r.bytesPerToken() * HEADROOM)).append('\n');
+        }
+
+        Files.writeString(path, sb.toString());
+        System.out.println("Budgets written to " + path.toAbsolutePath());
+    }
+}
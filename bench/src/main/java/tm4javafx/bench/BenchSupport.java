@@ -0,0 +1,157 @@
+/* SPDX-License-Identifier: MIT */
+
+package tm4javafx.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Set;
+import java.util.stream.Collectors;
+import tm4java.theme.IThemeSource;
+import tm4javafx.demo.GrammarLink;
+import tm4javafx.richtext.StyleProvider;
+
+/**
+ * Shared utilities of the benchmark runners.
+ * <p>
+ * The runners live in a separate module, which is only built with the {@code bench}
+ * profile and is not shipped. Install the other modules first, i.e. {@code mvn install},
+ * then run them with {@code mvn -Pbench -pl bench compile javafx:run}.
+ * <p>
+ * All runners accept the following system properties:
+ * <li>{@code bench.grammars} - comma-separated list of grammars to run, all by default
+ * <li>{@code bench.theme} - theme name, "one-dark-pro" by default
+ * <li>{@code bench.resources} - the directory of the demo grammars and themes,
+ * "../demo/src/main/resources" by default, relative to the module directory
+ * <li>{@code bench.<budget key>} - overrides the budget from the properties file
+ */
+final class BenchSupport {
+
+    // read from the demo sources, so that it doesn't matter whether the demo
+    // module is resolved as a directory or as a jar
+    static final Path RESOURCES_DIR =
+        resolveModulePath(System.getProperty("bench.resources", "../demo/src/main/resources"));
+    static final Path GRAMMARS_DIR = RESOURCES_DIR.resolve("tm4javafx/demo/grammars");
+    static final Path THEMES_DIR = RESOURCES_DIR.resolve("tm4javafx/demo/themes");
+
+    private BenchSupport() {
+        // utility class
+    }
+
+    static List<GrammarLink> findGrammars() {
+        var filter = System.getProperty("bench.grammars", "").trim();
+        if (filter.isEmpty()) {
+            return GrammarLink.findAll(GRAMMARS_DIR);
+        }
+
+        Set<String> names = Arrays.stream(filter.split(","))
+            .map(s -> s.trim().toUpperCase(Locale.ROOT))
+            .collect(Collectors.toSet());
+
+        return GrammarLink.findAll(GRAMMARS_DIR).stream()
+            .filter(link -> names.contains(link.name()))
+            .toList();
+    }
+
+    static StyleProvider createStyleProvider(GrammarLink link) {
+        var provider = new StyleProvider();
+        provider.setGrammar(link.getGrammarSource());
+        provider.setTheme(IThemeSource.fromFile(
+            THEMES_DIR.resolve(System.getProperty("bench.theme", "one-dark-pro") + ".json")
+        ));
+        return provider;
+    }
+
+    /**
+     * Resolves the given path against the module directory, i.e. the directory that contains
+     * the "target/classes" the runners are loaded from, so that the committed files are found
+     * regardless of the working directory. Absolute paths are returned as is.
+     */
+    static Path resolveModulePath(String path) {
+        var result = Path.of(path);
+        return result.isAbsolute() ? result : getModuleDirectory().resolve(result).normalize();
+    }
+
+    static Path getModuleDirectory() {
+        Path classes;
+        try {
+            classes = Path.of(BenchSupport.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+
+        var target = classes.getParent();
+        var module = target != null ? target.getParent() : null;
+        if (module == null || !Files.isDirectory(module.resolve("src"))) {
+            throw new IllegalStateException("Runners must be started from the module classes, got " + classes);
+        }
+        return module;
+    }
+
+    static String repeatToLines(String text, int minLines) {
+        var sb = new StringBuilder(text);
+        if (!text.endsWith("\n")) {
+            sb.append('\n');
+        }
+
+        int lines = (int) text.lines().count();
+        if (lines == 0) {
+            return text;
+        }
+
+        var chunk = sb.toString();
+        for (int total = lines; total < minLines; total += lines) {
+            sb.append(chunk);
+        }
+
+        return sb.toString();
+    }
+
+    static String[] splitLines(String text) {
+        return text.split("\\r?\\n|\\r");
+    }
+
+    /**
+     * Loads the budgets from the given classpath resource. Each budget can be overridden
+     * with the system property of the same name prefixed by "bench.".
+     */
+    static Properties loadBudgets(String resource) {
+        var budgets = new Properties();
+        try (InputStream in = BenchSupport.class.getResourceAsStream(resource)) {
+            if (in != null) {
+                budgets.load(in);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+
+        for (var name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith("bench.")) {
+                budgets.setProperty(name.substring("bench.".length()), System.getProperty(name));
+            }
+        }
+
+        return budgets;
+    }
+
+    /**
+     * Returns the value at the given percentile (0-100) of the sorted array.
+     */
+    static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.clamp(index, 0, sorted.length - 1)];
+    }
+
+    static double toMillis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
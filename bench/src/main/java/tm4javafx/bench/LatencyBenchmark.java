@@ -0,0 +1,278 @@
+/* SPDX-License-Identifier: MIT */
+
+package tm4javafx.bench;
+
+import static tm4javafx.bench.BenchSupport.percentile;
+import static tm4javafx.bench.BenchSupport.toMillis;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import javafx.scene.Parent;
+import javafx.scene.Scene;
+import javafx.scene.layout.StackPane;
+import javafx.stage.Stage;
+import jfx.incubator.scene.control.richtext.CodeArea;
+import jfx.incubator.scene.control.richtext.RichTextArea;
+import jfx.incubator.scene.control.richtext.TextPos;
+import jfx.incubator.scene.control.richtext.model.StyleAttributeMap;
+import tm4javafx.demo.GrammarLink;
+import tm4javafx.demo.ScrollableTextFlow;
+import tm4javafx.richtext.RichTextAreaModel;
+import tm4javafx.richtext.StatelessSyntaxDecorator;
+import tm4javafx.richtext.StyleProvider;
+import tm4javafx.richtext.TextFlowModel;
+
+/**
+ * Measures the end-to-end rendering latency, i.e. the time from {@code setText()} or
+ * an edit until the styled paragraphs are laid out, for {@code TextFlowModel},
+ * {@code RichTextAreaModel} and {@code CodeArea} with {@code StatelessSyntaxDecorator}.
+ * <p>
+ * Each scripted step (load, edits, scrolls) is measured from the start of the action
+ * to the next post-layout pulse. The pulse-to-pulse intervals are recorded during the
+ * whole script with an {@code AnimationTimer}. The percentiles are compared against the
+ * budgets from "latency-budgets.properties", and the process exits with a non-zero code
+ * if any budget is exceeded.
+ * <p>
+ * The bench module runs JavaFX with the headless Monocle platform and the software
+ * pipeline, so no display is required, e.g. on a plain Linux CI box.
+ * <p>
+ * Usage: {@code mvn -Pbench -pl bench compile javafx:run}
+ * <p>
+ * Additional system properties:
+ * <li>{@code bench.lines} - the minimum number of lines of each document, 5000 by default
+ * <li>{@code bench.edits} - the number of edits per document, 20 by default
+ */
+public final class LatencyBenchmark {
+
+    static final String BUDGETS = "/tm4javafx/bench/latency-budgets.properties";
+    static final long TIMEOUT_SECONDS = 120;
+
+    private final Properties budgets = BenchSupport.loadBudgets(BUDGETS);
+    private final int minLines = Integer.getInteger("bench.lines", 5_000);
+    private final int edits = Integer.getInteger("bench.edits", 20);
+    private final Map<String, List<Long>> samples = new LinkedHashMap<>();
+    private final List<Long> pulseIntervals = new ArrayList<>();
+
+    private Stage stage;
+    private Scene scene;
+
+    public static void main(String[] args) throws Exception {
+        var latch = new CompletableFuture<Void>();
+        Platform.startup(() -> latch.complete(null));
+        latch.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+        int exitCode;
+        try {
+            exitCode = new LatencyBenchmark().run();
+        } finally {
+            Platform.exit();
+        }
+
+        System.exit(exitCode);
+    }
+
+    int run() throws Exception {
+        onFxThread(() -> {
+            stage = new Stage();
+            scene = new Scene(new StackPane(), 1024, 768);
+            stage.setScene(scene);
+            stage.setX(-10_000);
+            stage.setY(-10_000);
+            stage.show();
+        });
+
+        var pulseTimer = new AnimationTimer() {
+            long last;
+
+            @Override
+            public void handle(long now) {
+                if (last > 0) {
+                    pulseIntervals.add(now - last);
+                }
+                last = now;
+            }
+        };
+        onFxThread(pulseTimer::start);
+
+        for (var link : BenchSupport.findGrammars()) {
+            var text = BenchSupport.repeatToLines(link.getExampleText(""), minLines);
+            if (text.isEmpty()) {
+                continue;
+            }
+
+            System.out.println("Running " + link.name());
+            runTextFlow(link, text);
+            runRichTextArea(link, text);
+            runCodeArea(link, text);
+        }
+
+        onFxThread(() -> {
+            pulseTimer.stop();
+            stage.hide();
+        });
+
+        return report();
+    }
+
+    //*************************************************************************
+
+    private void runTextFlow(GrammarLink link, String text) throws Exception {
+        var provider = BenchSupport.createStyleProvider(link);
+        var model = new TextFlowModel();
+        var view = onFxThread(() -> {
+            var stf = new ScrollableTextFlow();
+            model.setTextFlow(stf.getTextFlow());
+            model.setStyleProvider(provider);
+            return stf;
+        });
+
+        setRoot(view);
+        measure("textflow.load", () -> model.setText(text));
+        measure("textflow.reload", model::refresh);
+    }
+
+    private void runRichTextArea(GrammarLink link, String text) throws Exception {
+        var provider = BenchSupport.createStyleProvider(link);
+        var model = new RichTextAreaModel();
+        var area = onFxThread(() -> {
+            var rta = new RichTextArea();
+            model.setRichTextArea(rta);
+            model.setStyleProvider(provider);
+            return rta;
+        });
+
+        setRoot(area);
+        measure("richtextarea.load", () -> model.setText(text));
+        for (int i = 0; i < 5; i++) {
+            measure("richtextarea.scroll", area::movePageDown);
+        }
+    }
+
+    private void runCodeArea(GrammarLink link, String text) throws Exception {
+        StyleProvider provider = BenchSupport.createStyleProvider(link);
+        var area = onFxThread(() -> {
+            var ca = new CodeArea();
+            ca.setSyntaxDecorator(new StatelessSyntaxDecorator(provider));
+            return ca;
+        });
+
+        setRoot(area);
+        measure("codearea.load", () -> area.setText(text));
+
+        int lineCount = BenchSupport.splitLines(text).length;
+        for (int i = 0; i < edits; i++) {
+            int line = (int) ((long) lineCount * i / edits);
+            measure("codearea.edit", () -> area.insertText(TextPos.ofLeading(line, 0), "x", StyleAttributeMap.EMPTY));
+        }
+        for (int i = 0; i < 5; i++) {
+            measure("codearea.scroll", area::movePageDown);
+        }
+    }
+
+    //*************************************************************************
+
+    private void setRoot(Parent root) throws Exception {
+        onFxThread(() -> scene.setRoot(root));
+    }
+
+    /**
+     * Runs the action on the FX thread and waits for the next post-layout pulse.
+     */
+    private void measure(String name, Runnable action) throws Exception {
+        var done = new CompletableFuture<Long>();
+
+        Platform.runLater(() -> {
+            long start = System.nanoTime();
+            action.run();
+
+            var listener = new Runnable() {
+                @Override
+                public void run() {
+                    done.complete(System.nanoTime() - start);
+                    // don't modify the listener list while it's being iterated
+                    Platform.runLater(() -> scene.removePostLayoutPulseListener(this));
+                }
+            };
+            scene.addPostLayoutPulseListener(listener);
+            Platform.requestNextPulse();
+        });
+
+        long elapsed = done.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        samples.computeIfAbsent(name, _ -> new ArrayList<>()).add(elapsed);
+    }
+
+    private int report() {
+        var failures = new ArrayList<String>();
+
+        System.out.printf("%n%-22s %8s %10s %10s %10s %10s%n", "step", "count", "p50 ms", "p95 ms", "p99 ms", "max ms");
+        Consumer<Map.Entry<String, List<Long>>> printer = entry -> {
+            long[] sorted = entry.getValue().stream().mapToLong(Long::longValue).sorted().toArray();
+            long p50 = percentile(sorted, 50);
+            long p95 = percentile(sorted, 95);
+            long p99 = percentile(sorted, 99);
+
+            System.out.printf("%-22s %8d %10.2f %10.2f %10.2f %10.2f%n",
+                entry.getKey(), sorted.length, toMillis(p50), toMillis(p95), toMillis(p99),
+                toMillis(sorted[sorted.length - 1]));
+
+            checkBudget(failures, entry.getKey() + ".p95", p95);
+            checkBudget(failures, entry.getKey() + ".p99", p99);
+        };
+
+        samples.entrySet().forEach(printer);
+        printer.accept(Map.entry("pulse", pulseIntervals));
+
+        if (!failures.isEmpty()) {
+            System.out.println();
+            failures.forEach(System.out::println);
+            return 1;
+        }
+        return 0;
+    }
+
+    private void checkBudget(List<String> failures, String key, long nanos) {
+        var budget = budgets.getProperty(key);
+        if (budget == null) {
+            return;
+        }
+
+        double limit = Double.parseDouble(budget);
+        if (toMillis(nanos) > limit) {
+            failures.add(String.format("FAILED: %s = %.2f ms, budget %.2f ms", key, toMillis(nanos), limit));
+        }
+    }
+
+    //*************************************************************************
+
+    private interface FxSupplier<T> {
+
+        T get() throws Exception;
+    }
+
+    private static <T> T onFxThread(FxSupplier<T> supplier) throws Exception {
+        var result = new CompletableFuture<T>();
+        Platform.runLater(() -> {
+            try {
+                result.complete(supplier.get());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private static void onFxThread(Runnable runnable) throws Exception {
+        onFxThread(() -> {
+            runnable.run();
+            return null;
+        });
+    }
+}
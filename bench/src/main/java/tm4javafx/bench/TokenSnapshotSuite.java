@@ -0,0 +1,246 @@
+/* SPDX-License-Identifier: MIT */
+
+package tm4javafx.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import javafx.scene.paint.Color;
+import jfx.incubator.scene.control.richtext.model.StyleAttributeMap;
+import org.jspecify.annotations.Nullable;
+import tm4javafx.demo.GrammarLink;
+import tm4javafx.richtext.StyleProvider;
+import tm4javafx.richtext.StyledToken;
+
+/**
+ * Runs every grammar and example pair from the demo grammars directory through
+ * {@link StyleProvider} and compares the produced token stream against the committed
+ * snapshots. It also measures the tokenization throughput and writes a scoreboard of
+ * lines per second per grammar, the slowest grammar first.
+ * <p>
+ * A snapshot is a compact text serialization of the token stream. It starts with the
+ * style table, one "@id style" entry per distinct style, followed by one entry per
+ * line of text, which is a space-separated list of "offset:id" pairs. The token length
+ * is implied by the next token offset. The unstyled token id is "-".
+ * <p>
+ * Usage: {@code mvn -Pbench -pl bench compile javafx:run -DmainClass=tm4javafx.bench.TokenSnapshotSuite}
+ * <p>
+ * Arguments:
+ * <li>{@code --update} - rewrites the snapshots instead of comparing them
+ * <p>
+ * Additional system properties:
+ * <li>{@code bench.snapshots} - the snapshots directory, "snapshots" by default
+ * <li>{@code bench.scoreboard} - the scoreboard file, "target/token-scoreboard.txt" by default
+ * <p>
+ * Relative paths are resolved against the module directory, not the working directory.
+ * <li>{@code bench.lines} - the minimum number of lines for the throughput run, 2000 by default
+ */
+public final class TokenSnapshotSuite {
+
+    static final String SNAPSHOT_EXT = ".tokens";
+
+    record Score(String grammar, int lines, long nanos) {
+
+        double linesPerSecond() {
+            return nanos > 0 ? lines * 1_000_000_000.0 / nanos : 0;
+        }
+    }
+
+    private final Path snapshotsDir =
+        BenchSupport.resolveModulePath(System.getProperty("bench.snapshots", "snapshots"));
+    private final Path scoreboardPath =
+        BenchSupport.resolveModulePath(System.getProperty("bench.scoreboard", "target/token-scoreboard.txt"));
+    private final int minLines = Integer.getInteger("bench.lines", 2_000);
+    private final boolean update;
+
+    TokenSnapshotSuite(boolean update) {
+        this.update = update;
+    }
+
+    public static void main(String[] args) throws Exception {
+        boolean update = args.length > 0 && "--update".equals(args[0]);
+        System.exit(new TokenSnapshotSuite(update).run());
+    }
+
+    int run() throws IOException {
+        var failures = new ArrayList<String>();
+        var scores = new ArrayList<Score>();
+
+        Files.createDirectories(snapshotsDir);
+
+        for (var link : BenchSupport.findGrammars()) {
+            var text = link.getExampleText("");
+            if (text.isEmpty()) {
+                continue;
+            }
+
+            var name = link.name().toLowerCase(Locale.ROOT);
+            var snapshot = serialize(BenchSupport.createStyleProvider(link), BenchSupport.splitLines(text));
+            var snapshotPath = snapshotsDir.resolve(name + SNAPSHOT_EXT);
+
+            if (update) {
+                Files.writeString(snapshotPath, snapshot);
+            } else if (!Files.exists(snapshotPath)) {
+                failures.add("MISSING: " + snapshotPath);
+            } else {
+                var diff = findDifference(Files.readString(snapshotPath), snapshot);
+                if (diff != null) {
+                    failures.add("CHANGED: " + name + ", " + diff);
+                }
+            }
+
+            scores.add(measureThroughput(link, name));
+        }
+
+        writeScoreboard(scores);
+
+        if (update) {
+            System.out.println("Snapshots written to " + snapshotsDir.toAbsolutePath());
+            return 0;
+        }
+
+        if (!failures.isEmpty()) {
+            failures.forEach(System.out::println);
+            if (failures.stream().anyMatch(f -> f.startsWith("MISSING"))) {
+                System.out.println("Generate the missing snapshots with --update and commit them");
+            }
+            return 1;
+        }
+        return 0;
+    }
+
+    //*************************************************************************
+
+    /**
+     * Serializes the token stream of the given lines.
+     */
+    static String serialize(StyleProvider provider, String[] lines) {
+        var styleIds = new LinkedHashMap<StyleAttributeMap, Integer>();
+        var body = new StringBuilder();
+
+        for (var line : lines) {
+            int offset = 0;
+            boolean first = true;
+            for (StyledToken token : provider.tokenize(line)) {
+                if (!first) {
+                    body.append(' ');
+                }
+                first = false;
+
+                body.append(offset).append(':');
+                var style = token.style();
+                if (style != null) {
+                    body.append(styleIds.computeIfAbsent(style, _ -> styleIds.size()));
+                } else {
+                    body.append('-');
+                }
+                offset += token.text().length();
+            }
+            body.append('\n');
+        }
+
+        var sb = new StringBuilder();
+        for (Map.Entry<StyleAttributeMap, Integer> entry : styleIds.entrySet()) {
+            sb.append('@').append(entry.getValue()).append(' ').append(describe(entry.getKey())).append('\n');
+        }
+        sb.append('\n').append(body);
+
+        return sb.toString();
+    }
+
+    /**
+     * Returns a stable text representation of the style.
+     */
+    static String describe(StyleAttributeMap style) {
+        var sb = new StringBuilder();
+        sb.append("fg=").append(toHex(style.getTextColor()));
+        sb.append(" bg=").append(toHex(style.getBackground()));
+        if (style.isBold()) {
+            sb.append(" bold");
+        }
+        if (style.isItalic()) {
+            sb.append(" italic");
+        }
+        if (style.isUnderline()) {
+            sb.append(" underline");
+        }
+        if (style.isStrikeThrough()) {
+            sb.append(" strikethrough");
+        }
+        return sb.toString();
+    }
+
+    private static String toHex(@Nullable Color color) {
+        if (color == null) {
+            return "-";
+        }
+        return String.format("#%02x%02x%02x%02x",
+            Math.round(color.getRed() * 255),
+            Math.round(color.getGreen() * 255),
+            Math.round(color.getBlue() * 255),
+            Math.round(color.getOpacity() * 255)
+        );
+    }
+
+    private static @Nullable String findDifference(String expected, String actual) {
+        if (expected.equals(actual)) {
+            return null;
+        }
+
+        var expectedLines = expected.split("\n", -1);
+        var actualLines = actual.split("\n", -1);
+        int count = Math.min(expectedLines.length, actualLines.length);
+        for (int i = 0; i < count; i++) {
+            if (!expectedLines[i].equals(actualLines[i])) {
+                return "first difference at snapshot line " + (i + 1);
+            }
+        }
+        return "snapshot length " + expectedLines.length + " != " + actualLines.length;
+    }
+
+    private Score measureThroughput(GrammarLink link, String name) {
+        var lines = BenchSupport.splitLines(BenchSupport.repeatToLines(link.getExampleText(""), minLines));
+        var provider = BenchSupport.createStyleProvider(link);
+
+        // warm up
+        for (int i = 0; i < 3; i++) {
+            tokenizeAll(provider, lines);
+        }
+
+        long start = System.nanoTime();
+        tokenizeAll(provider, lines);
+        return new Score(name, lines.length, System.nanoTime() - start);
+    }
+
+    private static void tokenizeAll(StyleProvider provider, String[] lines) {
+        provider.setState(null);
+        for (var line : lines) {
+            provider.tokenize(line);
+        }
+    }
+
+    private void writeScoreboard(List<Score> scores) throws IOException {
+        var sorted = new ArrayList<>(scores);
+        sorted.sort(Comparator.comparingDouble(Score::linesPerSecond));
+
+        var sb = new StringBuilder();
+        sb.append(String.format("%-28s %8s %14s%n", "grammar", "lines", "lines/s"));
+        for (var score : sorted) {
+            sb.append(String.format("%-28s %8d %14.0f%n", score.grammar(), score.lines(), score.linesPerSecond()));
+        }
+
+        System.out.print(sb);
+
+        var parent = scoreboardPath.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Files.writeString(scoreboardPath, sb.toString());
+    }
+}
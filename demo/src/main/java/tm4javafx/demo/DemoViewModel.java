@@ -10,9 +10,7 @@ import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.TreeSet;
 import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleObjectProperty;
 import javafx.collections.FXCollections;
@@ -153,41 +151,7 @@ public class DemoViewModel {
     }
 
     private List<GrammarLink> findGrammars() {
-        var grammars = new ArrayList<GrammarLink>();
-        var languages = new TreeSet<GrammarLink.Sample>();
-        var samples = new HashMap<String, GrammarLink.Sample>();
-
-        try {
-            Files.walkFileTree(GRAMMARS_DIR, new SimpleFileVisitor<>() {
-                @Override
-                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
-                    var sample = GrammarLink.Sample.of(file);
-                    if (sample.isGrammar() || sample.isExample()) {
-                        languages.add(sample);
-                        samples.put(sample.id(), sample);
-                    }
-                    return FileVisitResult.CONTINUE;
-                }
-            });
-        } catch (IOException e) {
-            throw new RuntimeException(e.getMessage(), e);
-        }
-
-        for (var sample : languages) {
-            var grammar = samples.get(sample.grammarId());
-            var example = samples.get(sample.exampleId());
-            if (grammar != null && example != null) {
-                grammars.add(new GrammarLink(
-                    sample.language().toUpperCase(),
-                    grammar.path(),
-                    example.path()
-                ));
-            }
-        }
-
-        Collections.sort(grammars);
-
-        return grammars;
+        return GrammarLink.findAll(GRAMMARS_DIR);
     }
 
     private List<ThemeLink> findThemes() {
@@ -3,10 +3,19 @@
 package tm4javafx.demo;
 
 import tm4java.grammar.IGrammarSource;
+import tm4javafx.richtext.PreHighlightedDocument;
 
 import java.io.IOException;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
 
 public record GrammarLink(String name, Path grammarPath, Path examplePath) implements Comparable<GrammarLink> {
 
@@ -27,6 +36,51 @@ public record GrammarLink(String name, Path grammarPath, Path examplePath) imple
         return name.compareTo(other.name);
     }
 
+    /**
+     * Finds all grammar and example pairs in the given directory.
+     */
+    public static List<GrammarLink> findAll(Path dir) {
+        var grammars = new ArrayList<GrammarLink>();
+        var languages = new TreeSet<Sample>();
+        var samples = new HashMap<String, Sample>();
+
+        try {
+            Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (file.getFileName().toString().endsWith(PreHighlightedDocument.FILE_EXTENSION)) {
+                        return FileVisitResult.CONTINUE; // created by the build, see prehighlight.properties
+                    }
+
+                    var sample = Sample.of(file);
+                    if (sample.isGrammar() || sample.isExample()) {
+                        languages.add(sample);
+                        samples.put(sample.id(), sample);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+
+        for (var sample : languages) {
+            var grammar = samples.get(sample.grammarId());
+            var example = samples.get(sample.exampleId());
+            if (grammar != null && example != null) {
+                grammars.add(new GrammarLink(
+                    sample.language().toUpperCase(),
+                    grammar.path(),
+                    example.path()
+                ));
+            }
+        }
+
+        Collections.sort(grammars);
+
+        return grammars;
+    }
+
     //*************************************************************************
 
     record Sample(String language, String type, Path path) implements Comparable<Sample> {
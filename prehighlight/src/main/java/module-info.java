@@ -0,0 +1,10 @@
+import org.jspecify.annotations.NullMarked;
+
+@NullMarked
+module tm4javafx.prehighlight {
+    requires static org.jspecify;
+
+    requires tm4javafx;
+
+    exports tm4javafx.prehighlight;
+}
@@ -0,0 +1,174 @@
+/* SPDX-License-Identifier: MIT */
+
+package tm4javafx.prehighlight;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Stream;
+import org.jspecify.annotations.Nullable;
+import tm4java.grammar.IGrammarSource;
+import tm4java.theme.IThemeSource;
+import tm4javafx.richtext.PreHighlightedDocument;
+import tm4javafx.richtext.StyleProvider;
+
+/**
+ * Highlights the static resources, e.g. help pages or bundled examples, during the build,
+ * and writes a {@link PreHighlightedDocument} next to each of them, so that they can be
+ * displayed at runtime without loading the grammars.
+ * <p>
+ * The configuration is a properties file with the following keys. The file paths are
+ * resolved against the configuration file directory.
+ * <li>{@code theme} - the theme file
+ * <li>{@code grammar.<name>} - the grammar file
+ * <li>{@code include.<name>} - the glob pattern of the resources to highlight with
+ * the grammar of the same name, relative to the resource root, e.g. {@code **}{@code /*.java}.
+ * A leading {@code **}{@code /} also matches the files directly in the resource root.
+ * <p>
+ * Arguments: {@code <config file> <resource root>}
+ * <p>
+ * The tool is meant to run in the {@code process-resources} phase of the module that
+ * bundles the resources, with the build output as the resource root, so that the documents
+ * are packaged along with them. See the {@code prehighlight} execution in the demo
+ * {@code pom.xml}, which runs it with the exec-maven-plugin.
+ * <p>
+ * The documents are only rewritten when changed, so the tool can run on every build
+ * without touching the up-to-date outputs.
+ */
+public final class PreHighlighter {
+
+    static final String THEME_KEY = "theme";
+    static final String GRAMMAR_PREFIX = "grammar.";
+    static final String INCLUDE_PREFIX = "include.";
+    static final String ANY_DIRECTORY = "**/";
+
+    record Rule(String name, PathMatcher matcher, StyleProvider provider) {
+    }
+
+    private final Path resourceRoot;
+    private final List<Rule> rules;
+
+    PreHighlighter(Path configFile, Path resourceRoot) throws IOException {
+        this.resourceRoot = resourceRoot;
+        this.rules = loadRules(configFile);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Usage: PreHighlighter <config file> <resource root>");
+            System.exit(2);
+        }
+
+        var highlighter = new PreHighlighter(Path.of(args[0]), Path.of(args[1]));
+        int count = highlighter.run();
+        System.out.println("Pre-highlighted " + count + " resource(s)");
+    }
+
+    /**
+     * Highlights all matching resources and returns the number of written documents.
+     */
+    int run() throws IOException {
+        int count = 0;
+        try (Stream<Path> files = Files.walk(resourceRoot)) {
+            for (var file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                var rule = findRule(resourceRoot.relativize(file));
+                if (rule != null && highlight(file, rule)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    //*************************************************************************
+
+    private boolean highlight(Path file, Rule rule) throws IOException {
+        if (file.getFileName().toString().endsWith(PreHighlightedDocument.FILE_EXTENSION)) {
+            return false;
+        }
+
+        var document = PreHighlightedDocument.highlight(rule.provider(), Files.readString(file));
+        var target = file.resolveSibling(file.getFileName() + PreHighlightedDocument.FILE_EXTENSION);
+
+        var output = new ByteArrayOutputStream();
+        document.write(output);
+        var bytes = output.toByteArray();
+
+        if (Files.exists(target) && Arrays.equals(Files.readAllBytes(target), bytes)) {
+            return false;
+        }
+
+        var temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temp, bytes);
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+        System.out.println(rule.name() + ": " + resourceRoot.relativize(file));
+        return true;
+    }
+
+    private static PathMatcher createMatcher(String glob) {
+        var fs = FileSystems.getDefault();
+        var matcher = fs.getPathMatcher("glob:" + glob);
+        if (!glob.startsWith(ANY_DIRECTORY)) {
+            return matcher;
+        }
+
+        // "**/" requires at least one directory, match the root files as well
+        var rootMatcher = fs.getPathMatcher("glob:" + glob.substring(ANY_DIRECTORY.length()));
+        return path -> matcher.matches(path) || rootMatcher.matches(path);
+    }
+
+    private @Nullable Rule findRule(Path relativePath) {
+        for (var rule : rules) {
+            if (rule.matcher().matches(relativePath)) {
+                return rule;
+            }
+        }
+        return null;
+    }
+
+    private static List<Rule> loadRules(Path configFile) throws IOException {
+        var config = new Properties();
+        try (var reader = Files.newBufferedReader(configFile)) {
+            config.load(reader);
+        }
+
+        var baseDir = configFile.toAbsolutePath().getParent();
+        var theme = config.getProperty(THEME_KEY);
+        if (theme == null) {
+            throw new IllegalArgumentException("Missing '" + THEME_KEY + "' property");
+        }
+
+        var rules = new ArrayList<Rule>();
+        for (var key : config.stringPropertyNames().stream().sorted().toList()) {
+            if (!key.startsWith(INCLUDE_PREFIX)) {
+                continue;
+            }
+
+            var name = key.substring(INCLUDE_PREFIX.length());
+            var grammar = config.getProperty(GRAMMAR_PREFIX + name);
+            if (grammar == null) {
+                throw new IllegalArgumentException("Missing '" + GRAMMAR_PREFIX + name + "' property");
+            }
+
+            var provider = new StyleProvider();
+            provider.setGrammar(IGrammarSource.fromFile(baseDir.resolve(grammar)));
+            provider.setTheme(IThemeSource.fromFile(baseDir.resolve(theme)));
+
+            rules.add(new Rule(name, createMatcher(config.getProperty(key)), provider));
+        }
+        return rules;
+    }
+}
@@ -0,0 +1,145 @@
+/* SPDX-License-Identifier: MIT */
+
+package tm4javafx.richtext;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import javafx.scene.paint.Color;
+import jfx.incubator.scene.control.richtext.model.StyleAttributeMap;
+
+/**
+ * Renders the highlighted text as ANSI escape sequences for terminal output.
+ * <p>
+ * The escape sequence of each distinct style is computed once and cached, so
+ * the renderer can be shared between threads rendering different files.
+ */
+public class AnsiRenderer extends HighlightRenderer {
+
+    protected static final String ESC = "\u001b[";
+    protected static final String RESET = ESC + "0m";
+
+    /**
+     * The terminal color support.
+     */
+    public enum ColorMode {
+
+        /**
+         * 24-bit colors.
+         */
+        TRUE_COLOR,
+
+        /**
+         * The xterm 256 color palette.
+         */
+        COLOR_256
+    }
+
+    protected final ColorMode colorMode;
+    protected final boolean backgroundEnabled;
+    protected final ConcurrentHashMap<StyleAttributeMap, String> escapeCache = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new true color ANSI renderer that doesn't render the background.
+     */
+    public AnsiRenderer() {
+        this(ColorMode.TRUE_COLOR, false);
+    }
+
+    /**
+     * Creates a new ANSI renderer.
+     *
+     * @param colorMode         the terminal color support
+     * @param backgroundEnabled whether to render the token background,
+     *                          usually the terminal background is kept
+     */
+    public AnsiRenderer(ColorMode colorMode, boolean backgroundEnabled) {
+        this.colorMode = colorMode;
+        this.backgroundEnabled = backgroundEnabled;
+    }
+
+    //*************************************************************************
+
+    @Override
+    protected void writeLine(List<StyledToken> tokens, Appendable out) throws IOException {
+        for (var token : tokens) {
+            var style = token.style();
+            if (style == null) {
+                out.append(token.text());
+                continue;
+            }
+
+            var escape = escapeCache.computeIfAbsent(style, this::toEscapeSequence);
+            if (escape.isEmpty()) {
+                out.append(token.text());
+            } else {
+                out.append(escape).append(token.text()).append(RESET);
+            }
+        }
+    }
+
+    protected String toEscapeSequence(StyleAttributeMap style) {
+        var codes = new StringBuilder();
+
+        if (style.isBold()) {
+            appendCode(codes, "1");
+        }
+        if (style.isItalic()) {
+            appendCode(codes, "3");
+        }
+        if (style.isUnderline()) {
+            appendCode(codes, "4");
+        }
+        if (style.isStrikeThrough()) {
+            appendCode(codes, "9");
+        }
+
+        var textColor = style.getTextColor();
+        if (textColor != null) {
+            appendCode(codes, "38;" + toColorCode(textColor));
+        }
+
+        var background = style.getBackground();
+        if (backgroundEnabled && background != null) {
+            appendCode(codes, "48;" + toColorCode(background));
+        }
+
+        return codes.isEmpty() ? "" : ESC + codes + "m";
+    }
+
+    protected String toColorCode(Color color) {
+        int r = (int) Math.round(color.getRed() * 255);
+        int g = (int) Math.round(color.getGreen() * 255);
+        int b = (int) Math.round(color.getBlue() * 255);
+
+        return switch (colorMode) {
+            case TRUE_COLOR -> "2;" + r + ";" + g + ";" + b;
+            case COLOR_256 -> "5;" + toPaletteIndex(r, g, b);
+        };
+    }
+
+    /**
+     * Returns the nearest xterm 256 color palette index, either from the 6x6x6 color cube
+     * or from the grayscale ramp.
+     */
+    protected static int toPaletteIndex(int r, int g, int b) {
+        if (r == g && g == b) {
+            if (r < 8) {
+                return 16;
+            }
+            if (r > 248) {
+                return 231;
+            }
+            return 232 + Math.round((r - 8) / 247f * 24);
+        }
+
+        return 16 + 36 * Math.round(r / 255f * 5) + 6 * Math.round(g / 255f * 5) + Math.round(b / 255f * 5);
+    }
+
+    private static void appendCode(StringBuilder codes, String code) {
+        if (!codes.isEmpty()) {
+            codes.append(';');
+        }
+        codes.append(code);
+    }
+}
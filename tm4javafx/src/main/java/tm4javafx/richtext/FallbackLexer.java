@@ -0,0 +1,97 @@
+/* SPDX-License-Identifier: MIT */
+
+package tm4javafx.richtext;
+
+import java.util.ArrayList;
+import java.util.List;
+import jfx.incubator.scene.control.richtext.model.StyleAttributeMap;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * A cheap, stateless and grammar-independent lexer, which is used for very large
+ * documents (see {@link HighlightingMode#FALLBACK}). It only recognizes line comments,
+ * single-line block comments, quoted strings and numbers, which is good enough
+ * for most C-like, script and configuration languages.
+ */
+final class FallbackLexer {
+
+    private final @Nullable StyleAttributeMap defaultStyle;
+    private final @Nullable StyleAttributeMap commentStyle;
+    private final @Nullable StyleAttributeMap stringStyle;
+    private final @Nullable StyleAttributeMap numberStyle;
+
+    FallbackLexer(@Nullable StyleAttributeMap defaultStyle,
+                  @Nullable StyleAttributeMap commentStyle,
+                  @Nullable StyleAttributeMap stringStyle,
+                  @Nullable StyleAttributeMap numberStyle) {
+        this.defaultStyle = defaultStyle;
+        this.commentStyle = commentStyle;
+        this.stringStyle = stringStyle;
+        this.numberStyle = numberStyle;
+    }
+
+    List<StyledToken> tokenize(String line) {
+        var tokens = new ArrayList<StyledToken>();
+        int len = line.length();
+        int plainStart = 0;
+        int i = 0;
+
+        while (i < len) {
+            char c = line.charAt(i);
+            int end = -1;
+            StyleAttributeMap style = null;
+
+            if ((c == '/' && i + 1 < len && line.charAt(i + 1) == '/') || c == '#') {
+                end = len;
+                style = commentStyle;
+            } else if (c == '/' && i + 1 < len && line.charAt(i + 1) == '*') {
+                int close = line.indexOf("*/", i + 2);
+                end = close >= 0 ? close + 2 : len;
+                style = commentStyle;
+            } else if (c == '"' || c == '\'' || c == '`') {
+                end = findStringEnd(line, i + 1, c);
+                style = stringStyle;
+            } else if (Character.isDigit(c) && (i == 0 || !isWordChar(line.charAt(i - 1)))) {
+                end = i + 1;
+                while (end < len && (isWordChar(line.charAt(end)) || line.charAt(end) == '.')) {
+                    end++;
+                }
+                style = numberStyle;
+            }
+
+            if (end < 0) {
+                i++;
+                continue;
+            }
+
+            if (plainStart < i) {
+                tokens.add(new StyledToken(line.substring(plainStart, i), defaultStyle));
+            }
+            tokens.add(new StyledToken(line.substring(i, end), style));
+            plainStart = end;
+            i = end;
+        }
+
+        if (plainStart < len) {
+            tokens.add(new StyledToken(line.substring(plainStart), defaultStyle));
+        }
+
+        return tokens;
+    }
+
+    private static int findStringEnd(String line, int from, char quote) {
+        for (int i = from; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == quote) {
+                return i + 1;
+            }
+        }
+        return line.length();
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+}
@@ -0,0 +1,619 @@
+/* SPDX-License-Identifier: MIT */
+
+package tm4javafx.richtext;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import jfx.incubator.scene.control.richtext.model.StyleAttributeMap;
+import org.jspecify.annotations.Nullable;
+import tm4java.grammar.IGrammar;
+import tm4java.grammar.IStateStack;
+
+/**
+ * An on-disk cache of highlighted documents, so that reopening a large, unchanged
+ * file doesn't tokenize it again.
+ * <p>
+ * Each document is identified by a caller-supplied id (e.g. the file path) and stored
+ * in a separate file, keyed by the grammar scope, the grammar version (see
+ * {@link #setGrammarVersion(String, String)}) and the theme. The file contains
+ * the content hash, the styles, the hash and the styled tokens of each line, and
+ * the resume checkpoints. If the content hash matches, the document is served
+ * entirely from the cache. Otherwise, the cached lines are reused up to the first
+ * changed line, and, once the tokenization after the change is back in sync, for
+ * the unchanged lines at the end of the document.
+ * <p>
+ * The grammar states are not serializable, so a checkpoint is only stored for the
+ * lines that start in the root grammar state, i.e. outside any multi-line construct.
+ * Tokenization can resume at such a line without replaying the preceding lines.
+ * <p>
+ * The theme is identified by its compiled stylesheet, the same way as in
+ * {@link SnippetImageCache}. The entry files are read into memory as a whole and
+ * replaced atomically on writing, so no file handle or mapping is held between
+ * the calls. This class is thread-safe.
+ * <p>
+ * Usage:
+ * <pre>{@code
+ * var cache = new HighlightDiskCache(Path.of(System.getProperty("user.home"), ".cache", "tm4javafx"));
+ * model.setDiskCache(cache);
+ * model.setDocumentId(path.toString());
+ * model.setText(Files.readString(path));
+ * }</pre>
+ */
+public class HighlightDiskCache {
+
+    static final int MAGIC = 0x544D4843; // TMHC
+    static final int FORMAT_VERSION = 1;
+
+    public static final String DEFAULT_GRAMMAR_VERSION = "";
+    public static final String FILE_EXTENSION = ".tmhc";
+    // the flags, the text color and the background of an encoded style
+    static final int STYLE_SIZE = 3 * Integer.BYTES;
+
+    /**
+     * Identifies a cached document.
+     *
+     * @param documentId     the caller-supplied document id, e.g. the file path
+     * @param grammarScope   the grammar scope name
+     * @param grammarVersion the grammar version, see {@link #setGrammarVersion(String, String)}
+     * @param themeHash      the hash of the compiled theme stylesheet
+     */
+    public record Key(String documentId, String grammarScope, String grammarVersion, String themeHash) {
+    }
+
+    /**
+     * The decoded cache entry. The document text is not stored, the tokens only
+     * keep their length and style.
+     *
+     * @param contentHash the SHA-256 hash of the document text
+     * @param lineHashes  the hash of each line
+     * @param styles      the styles referenced by the tokens
+     * @param tokens      the length and the style index of each token, per line
+     * @param checkpoints the sorted indexes of the lines that start in the root grammar state
+     */
+    protected record Entry(byte[] contentHash, long[] lineHashes, StyleAttributeMap[] styles,
+                           int[][] tokens, int[] checkpoints) {
+
+        int size() {
+            return lineHashes.length;
+        }
+
+        /**
+         * Restores the styled tokens of the given line, or returns {@code null}
+         * if the cached token lengths don't match the line text.
+         */
+        @Nullable List<StyledToken> getTokens(int line, String text) {
+            var data = tokens[line];
+            var result = new StyledToken[data.length / 2];
+            int offset = 0;
+            for (int i = 0; i < result.length; i++) {
+                int length = data[2 * i];
+                int style = data[2 * i + 1];
+                if (length < 0 || offset + length > text.length() || style >= styles.length) {
+                    return null;
+                }
+                result[i] = new StyledToken(text.substring(offset, offset + length), style >= 0 ? styles[style] : null);
+                offset += length;
+            }
+            return offset == text.length() ? List.of(result) : null;
+        }
+
+        boolean isCheckpoint(int line) {
+            return line == 0 || Arrays.binarySearch(checkpoints, line) >= 0;
+        }
+
+        int floorCheckpoint(int line) {
+            int index = Arrays.binarySearch(checkpoints, line);
+            if (index >= 0) {
+                return checkpoints[index];
+            }
+            int insertion = -index - 1;
+            return insertion > 0 ? checkpoints[insertion - 1] : 0;
+        }
+    }
+
+    protected final Path directory;
+    protected final Map<String, String> grammarVersions = new ConcurrentHashMap<>();
+    // guarded by itself
+    private final Map<IGrammar, IStateStack> rootStates = new WeakHashMap<>();
+
+    private long hits;
+    private long partialHits;
+    private long misses;
+
+    /**
+     * Creates a new cache that stores the entries in the given directory.
+     * The directory is created on the first write.
+     */
+    public HighlightDiskCache(Path directory) {
+        this.directory = Objects.requireNonNull(directory, "Directory must not be null");
+    }
+
+    /**
+     * Returns the directory the entries are stored in.
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Sets the version of the grammar with the given scope name. Changing the version
+     * invalidates the cached documents highlighted with the previous one.
+     */
+    public void setGrammarVersion(String scopeName, @Nullable String version) {
+        if (version == null) {
+            grammarVersions.remove(scopeName);
+        } else {
+            grammarVersions.put(scopeName, version);
+        }
+    }
+
+    /**
+     * Returns the version of the grammar with the given scope name.
+     */
+    public String getGrammarVersion(String scopeName) {
+        return grammarVersions.getOrDefault(scopeName, DEFAULT_GRAMMAR_VERSION);
+    }
+
+    /**
+     * Returns the cache key of the document highlighted by the given style provider,
+     * or {@code null} if the grammar or the theme is not set.
+     */
+    public @Nullable Key getKey(StyleProvider provider, String documentId) {
+        var grammar = provider.getGrammar();
+        var stylesheet = provider.getStylesheet();
+        if (grammar == null || stylesheet == null) {
+            return null;
+        }
+
+        var scopeName = grammar.getScopeName();
+        var themeHash = HexFormat.of().formatHex(sha256(stylesheet.getCss()), 0, 16);
+        return new Key(documentId, scopeName, getGrammarVersion(scopeName), themeHash);
+    }
+
+    /**
+     * Returns the styled tokens of the given lines, reusing the cached ones where possible,
+     * and updates the cache entry. The style provider state is reset.
+     * <p>
+     * If the entry can't be read or written, the lines are tokenized as usual and the
+     * cache is not updated.
+     *
+     * @return the styled tokens of each line, or {@code null} if the grammar or the theme is not set
+     */
+    public @Nullable List<List<StyledToken>> tokenize(StyleProvider provider, String documentId, String[] lines) {
+        var key = getKey(provider, documentId);
+        var grammar = provider.getGrammar();
+        if (key == null || grammar == null) {
+            return null;
+        }
+
+        var contentHash = hashContent(lines);
+        var entry = read(key);
+        if (entry != null && Arrays.equals(entry.contentHash(), contentHash) && entry.size() == lines.length) {
+            var cached = restore(entry, lines, 0, 0, lines.length);
+            if (cached != null) {
+                countHit(false, true);
+                return cached;
+            }
+            entry = null;
+        }
+
+        var lineHashes = new long[lines.length];
+        for (int i = 0; i < lines.length; i++) {
+            lineHashes[i] = hashLine(lines[i]);
+        }
+
+        var result = new ArrayList<List<StyledToken>>(lines.length);
+        var checkpoints = new ArrayList<Integer>();
+        int from = 0;
+        int offset = 0;
+        int suffixStart = lines.length;
+
+        if (entry != null) {
+            // the unchanged lines at the start, up to the nearest resume point
+            int prefix = 0;
+            int limit = Math.min(lines.length, entry.size());
+            while (prefix < limit && lineHashes[prefix] == entry.lineHashes()[prefix]) {
+                prefix++;
+            }
+            from = entry.floorCheckpoint(prefix);
+            var cached = restore(entry, lines, 0, 0, from);
+            if (cached == null) {
+                cached = List.of();
+                from = 0;
+            }
+            result.addAll(cached);
+            for (int checkpoint : entry.checkpoints()) {
+                if (checkpoint < from) {
+                    checkpoints.add(checkpoint);
+                }
+            }
+
+            // the unchanged lines at the end
+            offset = entry.size() - lines.length;
+            while (suffixStart > from && suffixStart + offset > 0
+                && lineHashes[suffixStart - 1] == entry.lineHashes()[suffixStart - 1 + offset]) {
+                suffixStart--;
+            }
+        }
+
+        countHit(from > 0 || suffixStart < lines.length, false);
+
+        var root = getRootState(provider, grammar);
+        provider.setState(from > 0 ? root : null);
+        for (int i = from; i < lines.length; i++) {
+            boolean atRoot = isRootState(provider.getState(), root);
+
+            if (entry != null && atRoot && i > from && i >= suffixStart && entry.isCheckpoint(i + offset)) {
+                // back in sync, the rest of the document is unchanged
+                var cached = restore(entry, lines, i + offset, i, lines.length - i);
+                if (cached != null) {
+                    result.addAll(cached);
+                    for (int checkpoint : entry.checkpoints()) {
+                        if (checkpoint >= i + offset) {
+                            checkpoints.add(checkpoint - offset);
+                        }
+                    }
+                    break;
+                }
+                entry = null; // corrupted, tokenize the rest
+            }
+
+            if (atRoot && i > 0) {
+                checkpoints.add(i);
+            }
+            result.add(provider.tokenize(lines[i], HighlightingMode.FULL));
+        }
+        provider.setState(null);
+
+        var checkpointLines = checkpoints.stream().mapToInt(Integer::intValue).toArray();
+        write(key, encode(key, contentHash, lineHashes, result, checkpointLines));
+        return result;
+    }
+
+    /**
+     * Removes the cached entry of the given document.
+     */
+    public void invalidate(Key key) {
+        try {
+            Files.deleteIfExists(getPath(key));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the number of documents served entirely from the cache.
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of documents that reused a part of the cached lines.
+     */
+    public synchronized long getPartialHitCount() {
+        return partialHits;
+    }
+
+    /**
+     * Returns the number of documents tokenized from scratch.
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    //*************************************************************************
+
+    /**
+     * Returns the file that stores the entry of the given key.
+     */
+    protected Path getPath(Key key) {
+        var name = String.join("\n", key.documentId(), key.grammarScope(), key.grammarVersion(), key.themeHash());
+        return directory.resolve(HexFormat.of().formatHex(sha256(name), 0, 20) + FILE_EXTENSION);
+    }
+
+    /**
+     * Reads the entry of the given key, or returns {@code null} if there's none,
+     * or it's corrupted, or belongs to another key.
+     */
+    protected @Nullable Entry read(Key key) {
+        var path = getPath(key);
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                return null;
+            }
+
+            // a heap buffer rather than a mapping, which would keep the file
+            // locked on Windows and make the atomic replacement in write() fail
+            var buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    return null; // truncated by a concurrent write
+                }
+            }
+            return decode(buffer.flip(), key);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            return null; // corrupted, the entry will be rewritten
+        }
+    }
+
+    /**
+     * Writes the encoded entry of the given key, replacing the existing one atomically.
+     * Failures are ignored, since the cache is only an optimization.
+     */
+    protected void write(Key key, ByteBuffer buffer) {
+        var path = getPath(key);
+        Path temp = null;
+        try {
+            Files.createDirectories(directory);
+            temp = Files.createTempFile(directory, "entry", ".tmp");
+            try (var channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            try {
+                if (temp != null) {
+                    Files.deleteIfExists(temp);
+                }
+            } catch (IOException ignored) {
+                // nothing to do
+            }
+        }
+    }
+
+    protected ByteBuffer encode(Key key, byte[] contentHash, long[] lineHashes,
+                                List<List<StyledToken>> lines, int[] checkpoints) {
+        var styles = new LinkedHashMap<StyleAttributeMap, Integer>();
+        int tokenCount = 0;
+        for (var line : lines) {
+            for (var token : line) {
+                if (token.style() != null) {
+                    styles.putIfAbsent(token.style(), styles.size());
+                }
+            }
+            tokenCount += line.size();
+        }
+
+        var header = new ArrayList<byte[]>();
+        for (var value : List.of(key.grammarScope(), key.grammarVersion(), key.themeHash())) {
+            header.add(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        int size = 4 + 4 + 4 + contentHash.length
+            + header.stream().mapToInt(bytes -> 4 + bytes.length).sum()
+            + 4 + styles.size() * STYLE_SIZE
+            + 4 + checkpoints.length * 4
+            + 4 + lines.size() * 12
+            + tokenCount * 8;
+
+        var buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC);
+        buffer.putInt(FORMAT_VERSION);
+        for (var bytes : header) {
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+        buffer.putInt(contentHash.length);
+        buffer.put(contentHash);
+
+        buffer.putInt(styles.size());
+        for (var style : styles.keySet()) {
+            encodeStyle(buffer, style);
+        }
+
+        buffer.putInt(checkpoints.length);
+        for (int checkpoint : checkpoints) {
+            buffer.putInt(checkpoint);
+        }
+
+        buffer.putInt(lines.size());
+        for (int i = 0; i < lines.size(); i++) {
+            var line = lines.get(i);
+            buffer.putLong(lineHashes[i]);
+            buffer.putInt(line.size());
+            for (var token : line) {
+                buffer.putInt(token.text().length());
+                buffer.putInt(token.style() != null ? styles.get(token.style()) : -1);
+            }
+        }
+
+        return buffer.flip();
+    }
+
+    protected @Nullable Entry decode(ByteBuffer buffer, Key key) {
+        if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+            return null;
+        }
+
+        for (var value : List.of(key.grammarScope(), key.grammarVersion(), key.themeHash())) {
+            if (!value.equals(getString(buffer))) {
+                return null; // a hash collision of the file name
+            }
+        }
+
+        // the counts are checked against the remaining bytes before allocating,
+        // so that a corrupted file can't cause an OutOfMemoryError
+        int hashLength = readCount(buffer, 1);
+        if (hashLength < 0) {
+            return null;
+        }
+        var contentHash = new byte[hashLength];
+        buffer.get(contentHash);
+
+        int styleCount = readCount(buffer, STYLE_SIZE);
+        if (styleCount < 0) {
+            return null;
+        }
+        var styles = new StyleAttributeMap[styleCount];
+        for (int i = 0; i < styles.length; i++) {
+            styles[i] = decodeStyle(buffer);
+        }
+
+        int checkpointCount = readCount(buffer, Integer.BYTES);
+        if (checkpointCount < 0) {
+            return null;
+        }
+        var checkpoints = new int[checkpointCount];
+        for (int i = 0; i < checkpoints.length; i++) {
+            checkpoints[i] = buffer.getInt();
+        }
+
+        int lineCount = readCount(buffer, Long.BYTES + Integer.BYTES);
+        if (lineCount < 0) {
+            return null;
+        }
+        var lineHashes = new long[lineCount];
+        var tokens = new int[lineCount][];
+        for (int i = 0; i < lineCount; i++) {
+            lineHashes[i] = buffer.getLong();
+            int tokenCount = readCount(buffer, 2 * Integer.BYTES);
+            if (tokenCount < 0) {
+                return null;
+            }
+            var data = new int[2 * tokenCount];
+            buffer.asIntBuffer().get(data);
+            buffer.position(buffer.position() + 4 * data.length);
+            tokens[i] = data;
+        }
+
+        return new Entry(contentHash, lineHashes, styles, tokens, checkpoints);
+    }
+
+    /**
+     * Restores the styled tokens of the given number of cached lines, or returns
+     * {@code null} if any of them doesn't match the document text.
+     */
+    protected @Nullable List<List<StyledToken>> restore(Entry entry, String[] lines,
+                                                        int entryFrom, int from, int count) {
+        var result = new ArrayList<List<StyledToken>>(count);
+        for (int i = 0; i < count; i++) {
+            var tokens = entry.getTokens(entryFrom + i, lines[from + i]);
+            if (tokens == null) {
+                return null;
+            }
+            result.add(tokens);
+        }
+        return result;
+    }
+
+    protected static void encodeStyle(ByteBuffer buffer, StyleAttributeMap style) {
+        buffer.putInt(StyleCodec.getFlags(style));
+        buffer.putInt(StyleCodec.getTextColor(style));
+        buffer.putInt(StyleCodec.getBackground(style));
+    }
+
+    protected static StyleAttributeMap decodeStyle(ByteBuffer buffer) {
+        int flags = buffer.getInt();
+        int textColor = buffer.getInt();
+        int background = buffer.getInt();
+        return StyleCodec.decode(flags, textColor, background);
+    }
+
+    /**
+     * Returns the grammar state at the top level of the document. The state is
+     * computed once per grammar.
+     */
+    protected @Nullable IStateStack getRootState(StyleProvider provider, IGrammar grammar) {
+        synchronized (rootStates) {
+            var root = rootStates.get(grammar);
+            if (root == null) {
+                root = grammar.tokenizeLine("", null, provider.getTokenizationTimeout()).ruleStack();
+                if (root != null) {
+                    rootStates.put(grammar, root);
+                }
+            }
+            return root;
+        }
+    }
+
+    private synchronized void countHit(boolean partial, boolean full) {
+        if (full) {
+            hits++;
+        } else if (partial) {
+            partialHits++;
+        } else {
+            misses++;
+        }
+    }
+
+    private static boolean isRootState(@Nullable IStateStack state, @Nullable IStateStack root) {
+        return state == null || state.equals(root);
+    }
+
+    private static byte[] hashContent(String[] lines) {
+        var digest = newDigest();
+        for (int i = 0; i < lines.length; i++) {
+            if (i > 0) {
+                digest.update((byte) '\n');
+            }
+            digest.update(lines[i].getBytes(StandardCharsets.UTF_8));
+        }
+        return digest.digest();
+    }
+
+    // FNV-1a over the UTF-16 chars
+    private static long hashLine(String line) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < line.length(); i++) {
+            hash ^= line.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash ^ line.length();
+    }
+
+    private static byte[] sha256(String value) {
+        return newDigest().digest(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // required by the Java platform
+        }
+    }
+
+    private static @Nullable String getString(ByteBuffer buffer) {
+        int length = readCount(buffer, 1);
+        if (length < 0) {
+            return null;
+        }
+        var bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the number of the following elements of the given size in bytes, or returns
+     * -1 if the remaining bytes can't hold that many elements, i.e. the entry is corrupted.
+     */
+    private static int readCount(ByteBuffer buffer, int elementSize) {
+        int count = buffer.remaining() >= Integer.BYTES ? buffer.getInt() : -1;
+        return count >= 0 && (long) count * elementSize <= buffer.remaining() ? count : -1;
+    }
+}
@@ -0,0 +1,167 @@
+/* SPDX-License-Identifier: MIT */
+
+package tm4javafx.richtext;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Limits the memory retained by the highlighted data of several documents.
+ * <p>
+ * Each document (a syntax decorator or a model) registers itself by calling
+ * {@link #touch(Evictable)} whenever its highlighted data is used. The manager
+ * keeps the documents in the least recently used order and, once the estimated
+ * size of all documents exceeds the budget, asks the least recently used ones to
+ * {@link Evictable#evict() evict} their data. Evicted documents keep their data
+ * behind a soft reference, so it can be either restored or rebuilt transparently
+ * when the document is used again.
+ * <p>
+ * Usage:
+ * <pre>{@code
+ * var manager = new HighlightMemoryManager(64 * 1024 * 1024);
+ * for (var tab : tabs) {
+ *     var decorator = new StatelessSyntaxDecorator(provider);
+ *     decorator.setMemoryManager(manager);
+ *     ...
+ * }
+ * }</pre>
+ */
+public class HighlightMemoryManager {
+
+    public static final long DEFAULT_BUDGET = 128L * 1024 * 1024;
+
+    private static final HighlightMemoryManager DEFAULT = new HighlightMemoryManager(DEFAULT_BUDGET);
+
+    /**
+     * A document that holds the highlighted data, which can be evicted from memory.
+     */
+    public interface Evictable {
+
+        /**
+         * Returns the estimated size, in bytes, of the retained highlighted data.
+         */
+        long getRetainedSize();
+
+        /**
+         * Returns whether the document can be evicted now, e.g. because it's not visible.
+         */
+        default boolean canEvict() {
+            return true;
+        }
+
+        /**
+         * Releases the strongly held highlighted data.
+         */
+        void evict();
+    }
+
+    protected final LinkedHashMap<Evictable, Boolean> documents = new LinkedHashMap<>(16, 0.75f, true);
+    protected @Nullable Evictable mostRecent;
+    protected long budget;
+
+    /**
+     * Creates a new memory manager.
+     *
+     * @param budget the memory budget in bytes
+     */
+    public HighlightMemoryManager(long budget) {
+        setBudget(budget);
+    }
+
+    /**
+     * Returns the shared, process-wide memory manager.
+     */
+    public static HighlightMemoryManager getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns the memory budget in bytes.
+     */
+    public synchronized long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Sets the memory budget in bytes and evicts the documents that don't fit into it.
+     */
+    public synchronized void setBudget(long budget) {
+        if (budget <= 0) {
+            throw new IllegalArgumentException("Memory budget must be positive");
+        }
+        this.budget = budget;
+        trim(null);
+    }
+
+    /**
+     * Marks the given document as the most recently used one and evicts the least
+     * recently used documents if the budget is exceeded.
+     */
+    public synchronized void touch(Evictable document) {
+        if (document == mostRecent) {
+            return; // fast path for repeated access from the same document
+        }
+
+        mostRecent = document;
+        documents.put(document, Boolean.TRUE);
+        trim(document);
+    }
+
+    /**
+     * Re-checks the budget after the retained size of the given document has changed.
+     */
+    public synchronized void update(Evictable document) {
+        mostRecent = document;
+        documents.put(document, Boolean.TRUE);
+        trim(document);
+    }
+
+    /**
+     * Stops tracking the given document.
+     */
+    public synchronized void release(Evictable document) {
+        documents.remove(document);
+        if (mostRecent == document) {
+            mostRecent = null;
+        }
+    }
+
+    /**
+     * Returns the estimated size of all tracked documents in bytes.
+     */
+    public synchronized long getRetainedSize() {
+        long size = 0;
+        for (var document : documents.keySet()) {
+            size += document.getRetainedSize();
+        }
+        return size;
+    }
+
+    //*************************************************************************
+
+    protected void trim(@Nullable Evictable current) {
+        long size = getRetainedSize();
+        if (size <= budget) {
+            return;
+        }
+
+        // iterate over a copy, because evict() may call back into the manager
+        var candidates = new ArrayList<>(documents.keySet());
+        for (var document : candidates) {
+            if (size <= budget) {
+                break;
+            }
+
+            if (document == current || !document.canEvict()) {
+                continue;
+            }
+
+            long retained = document.getRetainedSize();
+            if (retained > 0) {
+                document.evict();
+                size -= retained;
+            }
+        }
+    }
+}
@@ -0,0 +1,280 @@
+/* SPDX-License-Identifier: MIT */
+
+package tm4javafx.richtext;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import jfx.incubator.scene.control.richtext.TextPos;
+
+/**
+ * A layer of {@link OverlayRange}s (search matches, diagnostics, diff markers)
+ * highlighted on top of the syntax styles.
+ * <p>
+ * The overlay doesn't affect tokenization. The ranges are merged with the syntax
+ * tokens when the styled paragraph is created, and changing the overlay only
+ * invalidates the lines covered by the changed ranges. The ranges are indexed by
+ * an interval tree, so finding the ranges of a line takes O(log n).
+ * <p>
+ * Usage:
+ * <pre>{@code
+ * var overlay = new HighlightOverlay();
+ * decorator.setOverlay(overlay);
+ *
+ * var matchStyle = StyleAttributeMap.builder().setBackground(Color.YELLOW).build();
+ * overlay.setAll(matches.stream()
+ *     .map(m -> OverlayRange.of(m.line(), m.start(), m.end(), matchStyle))
+ *     .toList());
+ * }</pre>
+ * <p>
+ * The ranges are stored in document coordinates. When the document is edited, the
+ * ranges after the edit are shifted along with the text, and the ranges intersecting
+ * the edited text are removed, see {@link #handleChange(TextPos, TextPos, int, int, int)}.
+ * The {@link StatelessSyntaxDecorator} does this for its overlay automatically, so an
+ * overlay must be attached to a single decorator only.
+ * <p>
+ * The overlay must be accessed from the FX application thread.
+ */
+public class HighlightOverlay {
+
+    /**
+     * Notified when the overlay ranges covering the given lines have changed.
+     */
+    @FunctionalInterface
+    public interface Listener {
+
+        /**
+         * Called after the overlay has changed.
+         *
+         * @param fromLine the first affected line (inclusive)
+         * @param toLine   the last affected line (inclusive)
+         */
+        void overlayChanged(int fromLine, int toLine);
+    }
+
+    protected final IntervalTree<OverlayRange> tree = new IntervalTree<>();
+    protected final LinkedHashSet<OverlayRange> ranges = new LinkedHashSet<>();
+    protected final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Creates a new empty overlay.
+     */
+    public HighlightOverlay() {
+    }
+
+    /**
+     * Adds the listener notified about the overlay changes.
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes the listener notified about the overlay changes.
+     */
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Returns whether the overlay contains no ranges.
+     */
+    public boolean isEmpty() {
+        return ranges.isEmpty();
+    }
+
+    /**
+     * Returns the number of ranges.
+     */
+    public int size() {
+        return ranges.size();
+    }
+
+    /**
+     * Returns a copy of all ranges in the insertion order.
+     */
+    public List<OverlayRange> getRanges() {
+        return new ArrayList<>(ranges);
+    }
+
+    /**
+     * Returns the ranges intersecting the given line, in the order of the range start.
+     */
+    public List<OverlayRange> getRanges(int line) {
+        if (ranges.isEmpty()) {
+            return List.of();
+        }
+
+        var result = new ArrayList<OverlayRange>();
+        tree.query(line, result::add);
+        return result;
+    }
+
+    /**
+     * Adds the given range.
+     */
+    public void add(OverlayRange range) {
+        if (ranges.add(range)) {
+            tree.insert(range.start().index(), range.end().index(), range);
+            fireChanged(range.start().index(), range.end().index());
+        }
+    }
+
+    /**
+     * Removes the given range.
+     */
+    public void remove(OverlayRange range) {
+        if (ranges.remove(range)) {
+            tree.remove(range.start().index(), range.end().index(), range);
+            fireChanged(range.start().index(), range.end().index());
+        }
+    }
+
+    /**
+     * Adds all given ranges, firing a single notification per contiguous block
+     * of affected lines.
+     */
+    public void addAll(Collection<OverlayRange> newRanges) {
+        var added = new ArrayList<OverlayRange>(newRanges.size());
+        for (var range : newRanges) {
+            if (ranges.add(range)) {
+                tree.insert(range.start().index(), range.end().index(), range);
+                added.add(range);
+            }
+        }
+        fireChanged(added);
+    }
+
+    /**
+     * Replaces all ranges with the given ones, firing a single notification per
+     * contiguous block of lines affected by either the old or the new ranges.
+     */
+    public void setAll(Collection<OverlayRange> newRanges) {
+        var affected = new ArrayList<OverlayRange>(ranges.size() + newRanges.size());
+        affected.addAll(ranges);
+
+        ranges.clear();
+        tree.clear();
+
+        for (var range : newRanges) {
+            if (ranges.add(range)) {
+                tree.insert(range.start().index(), range.end().index(), range);
+                affected.add(range);
+            }
+        }
+
+        fireChanged(affected);
+    }
+
+    /**
+     * Removes all ranges.
+     */
+    public void clear() {
+        setAll(List.of());
+    }
+
+    /**
+     * Updates the ranges after a text change: the ranges after the change are shifted
+     * along with the text, and the ranges intersecting the changed text are removed.
+     * The listeners are notified about the lines of the removed ranges only, because
+     * the shifted ranges keep their position relative to the text.
+     * <p>
+     * The arguments are the same as of {@code SyntaxDecorator.handleChange()}.
+     *
+     * @param start       the start of the replaced text
+     * @param end         the end of the replaced text
+     * @param charsTop    the number of characters inserted on the first line
+     * @param linesAdded  the number of inserted line breaks
+     * @param charsBottom the number of characters inserted on the last inserted line
+     */
+    public void handleChange(TextPos start, TextPos end, int charsTop, int linesAdded, int charsBottom) {
+        if (ranges.isEmpty() || (start.equals(end) && charsTop == 0 && linesAdded == 0)) {
+            return;
+        }
+
+        int editEnd = start.index() + linesAdded;
+        var updated = new ArrayList<OverlayRange>(ranges.size());
+        var removed = new ArrayList<OverlayRange>();
+        boolean changed = false;
+
+        for (var range : ranges) {
+            if (range.end().compareTo(start) <= 0) {
+                updated.add(range);
+                continue;
+            }
+
+            changed = true;
+            tree.remove(range.start().index(), range.end().index(), range);
+
+            if (range.start().compareTo(end) >= 0) {
+                var shifted = new OverlayRange(
+                    shift(range.start(), start, end, charsTop, linesAdded, charsBottom),
+                    shift(range.end(), start, end, charsTop, linesAdded, charsBottom),
+                    range.style()
+                );
+                tree.insert(shifted.start().index(), shifted.end().index(), shifted);
+                updated.add(shifted);
+            } else {
+                // the lines the removed range covers after the change
+                int from = Math.min(range.start().index(), start.index());
+                int to = range.end().index() > end.index()
+                    ? range.end().index() - end.index() + editEnd
+                    : editEnd;
+                removed.add(new OverlayRange(TextPos.ofLeading(from, 0), TextPos.ofLeading(to, 0), range.style()));
+            }
+        }
+
+        if (changed) {
+            ranges.clear();
+            ranges.addAll(updated);
+            fireChanged(removed);
+        }
+    }
+
+    //*************************************************************************
+
+    /**
+     * Returns the position after the change of the given position, which
+     * is at or after the end of the changed text.
+     */
+    protected static TextPos shift(TextPos pos, TextPos start, TextPos end,
+                                   int charsTop, int linesAdded, int charsBottom) {
+        if (pos.index() != end.index()) {
+            return TextPos.ofLeading(pos.index() - (end.index() - start.index()) + linesAdded, pos.offset());
+        }
+
+        // on the last line of the change, after the inserted text
+        int offset = linesAdded == 0 ? start.offset() + charsTop : charsBottom;
+        return TextPos.ofLeading(start.index() + linesAdded, offset + pos.offset() - end.offset());
+    }
+
+    protected void fireChanged(int fromLine, int toLine) {
+        for (var listener : listeners) {
+            listener.overlayChanged(fromLine, toLine);
+        }
+    }
+
+    protected void fireChanged(List<OverlayRange> changed) {
+        if (changed.isEmpty() || listeners.isEmpty()) {
+            return;
+        }
+
+        // merge the affected line intervals
+        var sorted = new ArrayList<>(changed);
+        sorted.sort((a, b) -> Integer.compare(a.start().index(), b.start().index()));
+
+        int from = sorted.getFirst().start().index();
+        int to = sorted.getFirst().end().index();
+        for (int i = 1; i < sorted.size(); i++) {
+            var range = sorted.get(i);
+            if (range.start().index() > to + 1) {
+                fireChanged(from, to);
+                from = range.start().index();
+            }
+            to = Math.max(to, range.end().index());
+        }
+        fireChanged(from, to);
+    }
+}
@@ -0,0 +1,257 @@
+/* SPDX-License-Identifier: MIT */
+
+package tm4javafx.richtext;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * A {@link Flow.Publisher} that tokenizes the lines of a text source and emits them
+ * as {@link HighlightedLine}s.
+ * <p>
+ * Lines are read from the source and tokenized lazily, only as many as the subscriber
+ * has requested, so large documents can flow through a pipeline without being
+ * materialized in memory. Cancelling the subscription stops the tokenization and
+ * closes the source.
+ * <p>
+ * The publisher is single-use: the text source can only be traversed once, and the
+ * style provider maintains the tokenization state, so only one subscriber is accepted.
+ * The style provider must not be used elsewhere until the subscription is terminated.
+ * Lines are emitted by the given executor, one at a time.
+ * <p>
+ * Usage:
+ * <pre>{@code
+ * var publisher = HighlightPublisher.fromReader(provider, Files.newBufferedReader(path));
+ * publisher.subscribe(subscriber);
+ * }</pre>
+ */
+public class HighlightPublisher implements Flow.Publisher<HighlightedLine> {
+
+    protected final StyleProvider styleProvider;
+    protected final Stream<String> lines;
+    protected final Executor executor;
+    protected final AtomicBoolean subscribed = new AtomicBoolean();
+
+    /**
+     * Creates a new publisher that emits lines using the common fork-join pool.
+     *
+     * @param styleProvider the style provider used to tokenize the lines
+     * @param lines         the lines of text, the stream is closed on termination
+     */
+    public HighlightPublisher(StyleProvider styleProvider, Stream<String> lines) {
+        this(styleProvider, lines, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a new publisher.
+     *
+     * @param styleProvider the style provider used to tokenize the lines
+     * @param lines         the lines of text, the stream is closed on termination
+     * @param executor      the executor used to tokenize and emit the lines
+     */
+    public HighlightPublisher(StyleProvider styleProvider, Stream<String> lines, Executor executor) {
+        this.styleProvider = Objects.requireNonNull(styleProvider, "Style provider must not be null");
+        this.lines = Objects.requireNonNull(lines, "Lines must not be null");
+        this.executor = Objects.requireNonNull(executor, "Executor must not be null");
+    }
+
+    /**
+     * Creates a new publisher that emits the lines of the given text.
+     */
+    public static HighlightPublisher fromText(StyleProvider styleProvider, String text) {
+        return new HighlightPublisher(styleProvider, text.lines());
+    }
+
+    /**
+     * Creates a new publisher that emits the lines read from the given reader.
+     * The reader is closed on termination.
+     */
+    public static HighlightPublisher fromReader(StyleProvider styleProvider, Reader reader) {
+        var bufferedReader = reader instanceof BufferedReader br ? br : new BufferedReader(reader);
+        var lines = bufferedReader.lines().onClose(() -> {
+            try {
+                bufferedReader.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        return new HighlightPublisher(styleProvider, lines);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void subscribe(Flow.Subscriber<? super HighlightedLine> subscriber) {
+        Objects.requireNonNull(subscriber, "Subscriber must not be null");
+
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("Publisher allows only a single subscriber"));
+            return;
+        }
+
+        var subscription = new LineSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+    }
+
+    //*************************************************************************
+
+    protected class LineSubscription implements Flow.Subscription {
+
+        private final Flow.Subscriber<? super HighlightedLine> subscriber;
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile @Nullable Throwable pendingError;
+
+        // only accessed by the drain loop
+        private @Nullable Iterator<String> iterator;
+        private boolean done;
+        private long index;
+
+        protected LineSubscription(Flow.Subscriber<? super HighlightedLine> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                pendingError = new IllegalArgumentException("Requested number of lines must be positive: " + n);
+            } else {
+                // add with overflow protection, Long.MAX_VALUE means unbounded
+                requested.getAndUpdate(r -> r + n < 0 ? Long.MAX_VALUE : r + n);
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            schedule();
+        }
+
+        private void schedule() {
+            if (wip.getAndIncrement() == 0) {
+                try {
+                    executor.execute(this::drain);
+                } catch (RuntimeException e) {
+                    // the executor rejected the task, the drain loop will never run
+                    cancelled = true;
+                    closeSource();
+                    subscriber.onError(e);
+                }
+            }
+        }
+
+        private void drain() {
+            int missed = 1;
+            do {
+                if (!done) {
+                    emit();
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void emit() {
+            try {
+                if (cancelled) {
+                    terminate();
+                    return;
+                }
+
+                var error = pendingError;
+                if (error != null) {
+                    terminate();
+                    subscriber.onError(error);
+                    return;
+                }
+
+                var iterator = this.iterator;
+                if (iterator == null) {
+                    styleProvider.setState(null);
+                    iterator = lines.iterator();
+                    this.iterator = iterator;
+                }
+
+                long limit = requested.get();
+                long emitted = 0;
+                while (true) {
+                    while (emitted != limit) {
+                        if (cancelled) {
+                            terminate();
+                            return;
+                        }
+                        if (!iterator.hasNext()) {
+                            terminate();
+                            subscriber.onComplete();
+                            return;
+                        }
+
+                        var line = iterator.next();
+                        var tokens = styleProvider.tokenize(line);
+                        subscriber.onNext(new HighlightedLine(index++, line, tokens));
+                        emitted++;
+                    }
+
+                    if (cancelled) {
+                        terminate();
+                        return;
+                    }
+                    if (!iterator.hasNext()) {
+                        // complete eagerly, without waiting for more demand
+                        terminate();
+                        subscriber.onComplete();
+                        return;
+                    }
+
+                    // pick up the demand added while emitting
+                    limit = requested.addAndGet(-emitted);
+                    emitted = 0;
+                    if (limit == 0) {
+                        return;
+                    }
+                }
+            } catch (Throwable e) {
+                if (!done) {
+                    terminate();
+                    subscriber.onError(e);
+                }
+            }
+        }
+
+        private void terminate() {
+            done = true;
+            closeSource();
+        }
+
+        private void closeSource() {
+            try {
+                lines.close();
+            } catch (RuntimeException e) {
+                // ignore, the subscriber is terminated anyway
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/* SPDX-License-Identifier: MIT */
+
+package tm4javafx.richtext;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.List;
+
+/**
+ * The base class for renderers that write the highlighted text directly into an
+ * {@link Appendable} without creating any scene graph nodes.
+ * <p>
+ * The text is tokenized and written line by line, so the output can be streamed
+ * and the whole document is never held in memory. Renderers are stateless and can
+ * be shared between threads, but the {@link StyleProvider} maintains the tokenization
+ * state, so each thread needs its own style provider.
+ */
+public abstract class HighlightRenderer {
+
+    /**
+     * Highlights the given text and writes it to the output.
+     */
+    public void render(StyleProvider provider, String text, Appendable out) throws IOException {
+        render(provider, new BufferedReader(new StringReader(text)), out);
+    }
+
+    /**
+     * Highlights the text read from the given reader and writes it to the output.
+     * The reader is not closed.
+     */
+    public void render(StyleProvider provider, Reader reader, Appendable out) throws IOException {
+        var bufferedReader = reader instanceof BufferedReader br ? br : new BufferedReader(reader);
+
+        provider.setState(null);
+        writeHeader(out);
+
+        String line;
+        boolean first = true;
+        while ((line = bufferedReader.readLine()) != null) {
+            if (!first) {
+                writeLineBreak(out);
+            }
+            first = false;
+            writeLine(provider.tokenize(line), out);
+        }
+
+        writeFooter(out);
+    }
+
+    //*************************************************************************
+
+    /**
+     * Writes the content preceding the first line.
+     */
+    protected void writeHeader(Appendable out) throws IOException {
+    }
+
+    /**
+     * Writes the content following the last line.
+     */
+    protected void writeFooter(Appendable out) throws IOException {
+    }
+
+    /**
+     * Writes the line separator.
+     */
+    protected void writeLineBreak(Appendable out) throws IOException {
+        out.append('\n');
+    }
+
+    /**
+     * Writes the styled tokens of a single line.
+     */
+    protected abstract void writeLine(List<StyledToken> tokens, Appendable out) throws IOException;
+}
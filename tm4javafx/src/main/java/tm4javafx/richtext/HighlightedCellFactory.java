@@ -0,0 +1,277 @@
+/* SPDX-License-Identifier: MIT */
+
+package tm4javafx.richtext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+import javafx.scene.control.ContentDisplay;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.control.TableCell;
+import javafx.scene.control.TableColumn;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Text;
+import javafx.scene.text.TextFlow;
+import javafx.util.Callback;
+import jfx.incubator.scene.control.richtext.model.StyleAttributeMap;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Creates {@code ListView} and {@code TableView} cells that display their items as
+ * highlighted one-liners, e.g. search results or stack frames.
+ * <p>
+ * All cells created by the factory share a single style provider and a
+ * {@link LineTokenCache}, so a line is tokenized only once, no matter how many times
+ * it's scrolled into view. Unlike the document caches, the default cache keeps lines
+ * of any length, because the cells re-tokenize their item on every update. Each cell
+ * keeps its {@code TextFlow} and reuses its {@code Text} nodes across item updates,
+ * so scrolling doesn't create new nodes.
+ * <p>
+ * Only the first line of the item text is displayed. After changing the theme, refresh
+ * the view to restyle the visible cells. When the style classes are enabled (see
+ * {@link StyleProvider#setStyleClassesEnabled(boolean)}), the theme stylesheet must
+ * be added to the view.
+ * <p>
+ * Usage:
+ * <pre>{@code
+ * var cells = new HighlightedCellFactory(provider);
+ * listView.setCellFactory(cells.forListView(SearchResult::line));
+ * column.setCellFactory(cells.forTableColumn(String::valueOf));
+ * }</pre>
+ * <p>
+ * The style provider may be shared with other views: the factory tokenizes from the
+ * initial grammar state and restores the provider state afterwards. Like any other
+ * node, the cells must be used on the JavaFX application thread, and so must be the
+ * shared provider.
+ */
+public class HighlightedCellFactory {
+
+    public static final String CELL_STYLE_CLASS = "highlighted-cell";
+
+    protected final StyleProvider styleProvider;
+    protected final LineTokenCache tokenCache;
+
+    /**
+     * Creates a new cell factory with a new token cache without the line length limit.
+     */
+    public HighlightedCellFactory(StyleProvider styleProvider) {
+        this(styleProvider, new LineTokenCache(LineTokenCache.DEFAULT_MAX_SIZE, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Creates a new cell factory.
+     *
+     * @param styleProvider the style provider to tokenize the items with
+     * @param tokenCache    the cache of tokenized lines, can be shared between factories;
+     *                      the lines longer than its maximum line length are re-tokenized
+     *                      on every cell update
+     */
+    public HighlightedCellFactory(StyleProvider styleProvider, LineTokenCache tokenCache) {
+        this.styleProvider = Objects.requireNonNull(styleProvider, "Style provider must not be null");
+        this.tokenCache = Objects.requireNonNull(tokenCache, "Token cache must not be null");
+    }
+
+    /**
+     * Returns the style provider the items are tokenized with.
+     */
+    public StyleProvider getStyleProvider() {
+        return styleProvider;
+    }
+
+    /**
+     * Returns the cache of tokenized lines.
+     */
+    public LineTokenCache getTokenCache() {
+        return tokenCache;
+    }
+
+    /**
+     * Returns the {@code ListView} cell factory.
+     *
+     * @param converter converts the item to the text to highlight
+     */
+    public <T> Callback<ListView<T>, ListCell<T>> forListView(Function<? super T, String> converter) {
+        return listView -> new HighlightedListCell<>(converter);
+    }
+
+    /**
+     * Returns the {@code TableColumn} cell factory.
+     *
+     * @param converter converts the cell value to the text to highlight
+     */
+    public <S, T> Callback<TableColumn<S, T>, TableCell<S, T>> forTableColumn(Function<? super T, String> converter) {
+        return column -> new HighlightedTableCell<>(converter);
+    }
+
+    /**
+     * Tokenizes the first line of the given text, starting from the initial
+     * grammar state. The result is served from the token cache if possible.
+     */
+    public List<StyledToken> tokenize(String text) {
+        var line = firstLine(text);
+        var grammar = styleProvider.getGrammar();
+        var theme = styleProvider.getTheme();
+        if (grammar == null || theme == null) {
+            return line.isEmpty() ? List.of() : List.of(new StyledToken(line, null));
+        }
+
+        var cached = tokenCache.get(grammar, theme, null, line);
+        if (cached != null) {
+            return cached.tokens();
+        }
+
+        // the provider may be tokenizing a document, don't lose its state
+        var state = styleProvider.getState();
+        try {
+            styleProvider.setState(null);
+            var tokens = styleProvider.tokenize(line);
+            var entry = tokenCache.put(grammar, theme, null, line, tokens, styleProvider.getState());
+            return entry != null ? entry.tokens() : tokens;
+        } finally {
+            styleProvider.setState(state);
+        }
+    }
+
+    //*************************************************************************
+
+    /**
+     * The cell graphic that reuses its {@code Text} nodes.
+     */
+    protected class HighlightedText extends TextFlow {
+
+        protected final List<Text> pool = new ArrayList<>();
+
+        protected HighlightedText() {
+            getStyleClass().add(CELL_STYLE_CLASS);
+        }
+
+        /**
+         * Displays the given text, reusing the existing {@code Text} nodes.
+         */
+        protected void setText(String text) {
+            var tokens = tokenize(text);
+            var provider = styleProvider;
+            var stylesheet = provider.isStyleClassesEnabled() ? provider.getStylesheet() : null;
+
+            while (pool.size() < tokens.size()) {
+                pool.add(new Text());
+            }
+
+            for (int i = 0; i < tokens.size(); i++) {
+                var token = tokens.get(i);
+                var textNode = pool.get(i);
+                textNode.setText(token.text());
+                applyStyles(textNode, token.style(), stylesheet);
+            }
+
+            var children = getChildren();
+            if (children.size() > tokens.size()) {
+                children.remove(tokens.size(), children.size());
+            } else if (children.size() < tokens.size()) {
+                children.addAll(pool.subList(children.size(), tokens.size()));
+            }
+        }
+
+        protected void applyStyles(Text textNode, @Nullable StyleAttributeMap style,
+                                   @Nullable ThemeStylesheet stylesheet) {
+            // reset the styles of the previous item
+            textNode.getStyleClass().removeIf(name -> name.startsWith(ThemeStylesheet.STYLE_CLASS_PREFIX));
+            textNode.setStyle("");
+            textNode.setFill(Color.BLACK);
+            textNode.setUnderline(false);
+            textNode.setStrikethrough(false);
+
+            if (style == null) {
+                return;
+            }
+
+            var styleClasses = stylesheet != null ? stylesheet.getStyleClasses(style) : null;
+            if (styleClasses != null) {
+                textNode.getStyleClass().addAll(styleClasses);
+                return;
+            }
+
+            if (style.getTextColor() != null) {
+                textNode.setFill(style.getTextColor());
+            }
+            if (style.isBold()) {
+                StyleHelper.addOrReplaceStyle(textNode, "-fx-font-weight", "bold");
+            }
+            if (style.isItalic()) {
+                StyleHelper.addOrReplaceStyle(textNode, "-fx-font-style", "italic");
+            }
+            if (style.isUnderline()) {
+                textNode.setUnderline(true);
+            }
+            if (style.isStrikeThrough()) {
+                textNode.setStrikethrough(true);
+            }
+        }
+    }
+
+    /**
+     * The {@code ListView} cell that displays the item as a highlighted line.
+     */
+    protected class HighlightedListCell<T> extends ListCell<T> {
+
+        protected final Function<? super T, String> converter;
+        protected final HighlightedText graphic = new HighlightedText();
+
+        protected HighlightedListCell(Function<? super T, String> converter) {
+            this.converter = converter;
+            setContentDisplay(ContentDisplay.GRAPHIC_ONLY);
+        }
+
+        @Override
+        protected void updateItem(@Nullable T item, boolean empty) {
+            super.updateItem(item, empty);
+
+            if (empty || item == null) {
+                setGraphic(null);
+                return;
+            }
+
+            graphic.setText(Objects.requireNonNullElse(converter.apply(item), ""));
+            setGraphic(graphic);
+        }
+    }
+
+    /**
+     * The {@code TableView} cell that displays the value as a highlighted line.
+     */
+    protected class HighlightedTableCell<S, T> extends TableCell<S, T> {
+
+        protected final Function<? super T, String> converter;
+        protected final HighlightedText graphic = new HighlightedText();
+
+        protected HighlightedTableCell(Function<? super T, String> converter) {
+            this.converter = converter;
+            setContentDisplay(ContentDisplay.GRAPHIC_ONLY);
+        }
+
+        @Override
+        protected void updateItem(@Nullable T item, boolean empty) {
+            super.updateItem(item, empty);
+
+            if (empty || item == null) {
+                setGraphic(null);
+                return;
+            }
+
+            graphic.setText(Objects.requireNonNullElse(converter.apply(item), ""));
+            setGraphic(graphic);
+        }
+    }
+
+    private static String firstLine(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\n' || c == '\r') {
+                return text.substring(0, i);
+            }
+        }
+        return text;
+    }
+}
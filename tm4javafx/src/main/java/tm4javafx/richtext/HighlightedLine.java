@@ -0,0 +1,15 @@
+/* SPDX-License-Identifier: MIT */
+
+package tm4javafx.richtext;
+
+import java.util.List;
+
+/**
+ * Represents a tokenized line of text emitted by the {@link HighlightPublisher}.
+ *
+ * @param index  the zero-based line index
+ * @param text   the line text without the line terminator
+ * @param tokens the styled tokens of the line
+ */
+public record HighlightedLine(long index, String text, List<StyledToken> tokens) {
+}
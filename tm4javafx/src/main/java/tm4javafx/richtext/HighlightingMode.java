@@ -0,0 +1,34 @@
+/* SPDX-License-Identifier: MIT */
+
+package tm4javafx.richtext;
+
+/**
+ * Represents the highlighting quality tier applied to a document.
+ * <p>
+ * Large documents are automatically switched to cheaper tiers according
+ * to the {@link HighlightingPolicy}, so they don't exhaust the memory.
+ */
+public enum HighlightingMode {
+
+    /**
+     * The whole document is tokenized with the grammar.
+     */
+    FULL,
+
+    /**
+     * Only the visible part of the document is tokenized with the grammar,
+     * on demand. Controls that can't render on demand fall back to {@link #FALLBACK}.
+     */
+    VIEWPORT,
+
+    /**
+     * The document is tokenized with a cheap, grammar-independent lexer that only
+     * recognizes comments, strings and numbers.
+     */
+    FALLBACK,
+
+    /**
+     * The document is displayed as plain text with the theme default style.
+     */
+    PLAIN
+}
@@ -0,0 +1,81 @@
+/* SPDX-License-Identifier: MIT */
+
+package tm4javafx.richtext;
+
+/**
+ * Defines the document size thresholds for switching between the {@link HighlightingMode}s.
+ * <p>
+ * A document is highlighted in the best mode whose thresholds it fits into.
+ * Besides the document size, the estimated heap usage is checked: if highlighting
+ * the whole document would take more than the given ratio of the available heap,
+ * the {@link HighlightingMode#FULL} mode is skipped.
+ *
+ * @param maxFullLength     the maximum document length, in characters, for the full mode
+ * @param maxFullLines      the maximum number of lines for the full mode
+ * @param maxViewportLength the maximum document length, in characters, for the viewport mode
+ * @param maxViewportLines  the maximum number of lines for the viewport mode
+ * @param maxFallbackLength the maximum document length, in characters, for the fallback mode
+ * @param maxHeapRatio      the maximum ratio of the available heap the full mode may use
+ */
+public record HighlightingPolicy(long maxFullLength,
+                                 int maxFullLines,
+                                 long maxViewportLength,
+                                 int maxViewportLines,
+                                 long maxFallbackLength,
+                                 double maxHeapRatio) {
+
+    /**
+     * The default policy.
+     */
+    public static final HighlightingPolicy DEFAULT = new HighlightingPolicy(
+        10L * 1024 * 1024, 200_000,
+        100L * 1024 * 1024, 2_000_000,
+        200L * 1024 * 1024,
+        0.5
+    );
+
+    /**
+     * The policy that always selects the full mode.
+     */
+    public static final HighlightingPolicy ALWAYS_FULL = new HighlightingPolicy(
+        Long.MAX_VALUE, Integer.MAX_VALUE,
+        Long.MAX_VALUE, Integer.MAX_VALUE,
+        Long.MAX_VALUE,
+        Double.MAX_VALUE
+    );
+
+    /**
+     * The estimated number of heap bytes per character of fully highlighted text,
+     * including the tokens and the styled segments.
+     */
+    public static final int ESTIMATED_BYTES_PER_CHAR = 24;
+
+    /**
+     * Selects the highlighting mode for the document of the given size.
+     *
+     * @param length    the document length in characters
+     * @param lineCount the number of lines in the document
+     */
+    public HighlightingMode select(long length, int lineCount) {
+        if (length <= maxFullLength && lineCount <= maxFullLines && fitsHeap(length)) {
+            return HighlightingMode.FULL;
+        }
+        if (length <= maxViewportLength && lineCount <= maxViewportLines) {
+            return HighlightingMode.VIEWPORT;
+        }
+        if (length <= maxFallbackLength) {
+            return HighlightingMode.FALLBACK;
+        }
+        return HighlightingMode.PLAIN;
+    }
+
+    private boolean fitsHeap(long length) {
+        if (maxHeapRatio == Double.MAX_VALUE) {
+            return true;
+        }
+
+        var runtime = Runtime.getRuntime();
+        long available = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        return length * ESTIMATED_BYTES_PER_CHAR <= available * maxHeapRatio;
+    }
+}
@@ -0,0 +1,143 @@
+/* SPDX-License-Identifier: MIT */
+
+package tm4javafx.richtext;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Objects;
+import jfx.incubator.scene.control.richtext.model.StyleAttributeMap;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Renders the highlighted text as HTML.
+ * <p>
+ * The text is wrapped into a {@code <pre>} element and the tokens reference the shared
+ * style classes of the {@link ThemeStylesheet}, so many rendered documents can share a
+ * single stylesheet, see {@link #writeStylesheet(Appendable)}. The styles that can't be
+ * expressed by style classes are written inline.
+ * <p>
+ * Usage:
+ * <pre>{@code
+ * var renderer = new HtmlRenderer(provider.getStylesheet());
+ * renderer.writeStylesheet(cssWriter);
+ * renderer.render(provider, text, htmlWriter);
+ * }</pre>
+ */
+public class HtmlRenderer extends HighlightRenderer {
+
+    public static final String CODE_CLASS = ThemeStylesheet.STYLE_CLASS_PREFIX + "code";
+
+    protected final ThemeStylesheet stylesheet;
+
+    /**
+     * Creates a new HTML renderer.
+     */
+    public HtmlRenderer(ThemeStylesheet stylesheet) {
+        this.stylesheet = Objects.requireNonNull(stylesheet, "Stylesheet must not be null");
+    }
+
+    /**
+     * Writes the web CSS stylesheet with the style classes referenced by the rendered HTML.
+     */
+    public void writeStylesheet(Appendable out) throws IOException {
+        var settings = stylesheet.getSettings();
+        var scope = "." + CODE_CLASS;
+
+        out.append(scope).append(" { background-color: ").append(settings.getBackgroundColor())
+            .append("; color: ").append(settings.getForegroundColor()).append("; }\n");
+
+        var colors = stylesheet.getColors();
+        for (int i = 0; i < colors.size(); i++) {
+            out.append(scope).append(" .").append(ThemeStylesheet.FOREGROUND_CLASS_PREFIX).append(String.valueOf(i))
+                .append(" { color: ").append(StyleHelper.toCssColor(colors.get(i))).append("; }\n");
+        }
+
+        out.append(scope).append(" .").append(ThemeStylesheet.BOLD_CLASS).append(" { font-weight: bold; }\n");
+        out.append(scope).append(" .").append(ThemeStylesheet.ITALIC_CLASS).append(" { font-style: italic; }\n");
+        out.append(scope).append(" .").append(ThemeStylesheet.UNDERLINE_CLASS)
+            .append(" { text-decoration: underline; }\n");
+        out.append(scope).append(" .").append(ThemeStylesheet.STRIKETHROUGH_CLASS)
+            .append(" { text-decoration: line-through; }\n");
+    }
+
+    //*************************************************************************
+
+    @Override
+    protected void writeHeader(Appendable out) throws IOException {
+        out.append("<pre class=\"").append(CODE_CLASS).append("\"><code>");
+    }
+
+    @Override
+    protected void writeFooter(Appendable out) throws IOException {
+        out.append("</code></pre>\n");
+    }
+
+    @Override
+    protected void writeLine(List<StyledToken> tokens, Appendable out) throws IOException {
+        for (var token : tokens) {
+            var style = token.style();
+            var styleClasses = stylesheet.getStyleClasses(style);
+
+            if (styleClasses != null && styleClasses.length == 0) {
+                escape(token.text(), out);
+                continue;
+            }
+
+            if (styleClasses != null) {
+                out.append("<span class=\"").append(String.join(" ", styleClasses)).append("\">");
+            } else {
+                out.append("<span style=\"").append(toInlineStyle(Objects.requireNonNull(style))).append("\">");
+            }
+
+            escape(token.text(), out);
+            out.append("</span>");
+        }
+    }
+
+    protected String toInlineStyle(StyleAttributeMap style) {
+        var sb = new StringBuilder();
+
+        var textColor = style.getTextColor();
+        if (textColor != null) {
+            sb.append("color:").append(StyleHelper.toCssColor(textColor)).append(';');
+        }
+        var background = style.getBackground();
+        if (background != null) {
+            sb.append("background-color:").append(StyleHelper.toCssColor(background)).append(';');
+        }
+        if (style.isBold()) {
+            sb.append("font-weight:bold;");
+        }
+        if (style.isItalic()) {
+            sb.append("font-style:italic;");
+        }
+        if (style.isUnderline() || style.isStrikeThrough()) {
+            sb.append("text-decoration:")
+                .append(style.isUnderline() ? "underline" : "")
+                .append(style.isUnderline() && style.isStrikeThrough() ? " " : "")
+                .append(style.isStrikeThrough() ? "line-through" : "")
+                .append(';');
+        }
+
+        return sb.toString();
+    }
+
+    protected static void escape(String text, Appendable out) throws IOException {
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            @Nullable String replacement = switch (text.charAt(i)) {
+                case '<' -> "&lt;";
+                case '>' -> "&gt;";
+                case '&' -> "&amp;";
+                case '"' -> "&quot;";
+                default -> null;
+            };
+
+            if (replacement != null) {
+                out.append(text, start, i).append(replacement);
+                start = i + 1;
+            }
+        }
+        out.append(text, start, text.length());
+    }
+}
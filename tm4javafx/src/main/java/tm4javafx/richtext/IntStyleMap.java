@@ -0,0 +1,126 @@
+/* SPDX-License-Identifier: MIT */
+
+package tm4javafx.richtext;
+
+import java.util.Arrays;
+import jfx.incubator.scene.control.richtext.model.StyleAttributeMap;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * An open-addressing hash map from the non-negative {@link StyleKey packed style keys}
+ * to the resolved styles.
+ * <p>
+ * Lookups are lock-free, insertions are synchronized. A lookup that races with
+ * an insertion of the same key may miss, in which case the caller resolves the style
+ * and calls {@link #putIfAbsent(int, StyleAttributeMap)}, which returns the existing
+ * style. The styles are immutable, so a racy read never observes a partially
+ * constructed style.
+ */
+final class IntStyleMap {
+
+    private static final int EMPTY = -1;
+
+    private static final class Table {
+
+        final int[] keys;
+        final @Nullable StyleAttributeMap[] values;
+
+        Table(int capacity) {
+            keys = new int[capacity];
+            values = new StyleAttributeMap[capacity];
+            Arrays.fill(keys, EMPTY);
+        }
+    }
+
+    private volatile Table table;
+    private int size;
+
+    IntStyleMap(int initialCapacity) {
+        table = new Table(Integer.highestOneBit(Math.max(initialCapacity, 8) - 1) << 1);
+    }
+
+    /**
+     * Returns the style for the given key, or {@code null} if there's none.
+     */
+    @Nullable StyleAttributeMap get(int key) {
+        var t = table;
+        int mask = t.keys.length - 1;
+        int i = mix(key) & mask;
+
+        while (true) {
+            int k = t.keys[i];
+            if (k == key) {
+                return t.values[i];
+            }
+            if (k == EMPTY) {
+                return null;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    /**
+     * Stores the style for the given key unless there's one already.
+     *
+     * @return the style stored for the key
+     */
+    synchronized StyleAttributeMap putIfAbsent(int key, StyleAttributeMap value) {
+        if (key < 0) {
+            throw new IllegalArgumentException("Invalid style key: " + key);
+        }
+
+        var existing = get(key);
+        if (existing != null) {
+            return existing;
+        }
+
+        var t = table;
+        if ((size + 1) * 4 > t.keys.length * 3) {
+            t = resize(t);
+        }
+
+        insert(t, key, value);
+        size++;
+        return value;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    synchronized void clear() {
+        table = new Table(table.keys.length);
+        size = 0;
+    }
+
+    //*************************************************************************
+
+    private Table resize(Table old) {
+        var t = new Table(old.keys.length << 1);
+        for (int i = 0; i < old.keys.length; i++) {
+            var value = old.values[i];
+            if (old.keys[i] != EMPTY && value != null) {
+                insert(t, old.keys[i], value);
+            }
+        }
+        table = t; // publish the fully populated table
+        return t;
+    }
+
+    private static void insert(Table t, int key, StyleAttributeMap value) {
+        int mask = t.keys.length - 1;
+        int i = mix(key) & mask;
+        while (t.keys[i] != EMPTY && t.keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+
+        // the value first, so that a reader that sees the key is likely to see the value
+        t.values[i] = value;
+        t.keys[i] = key;
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,260 @@
+/* SPDX-License-Identifier: MIT */
+
+package tm4javafx.richtext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * An interval tree over closed integer intervals, implemented as an AVL tree
+ * keyed by the interval start and augmented with the maximum interval end
+ * of each subtree. Intervals with the same start share a tree node.
+ * <p>
+ * Insertion and removal take O(log n), finding the intervals containing
+ * a point takes O(log n + k), where k is the number of results.
+ *
+ * @param <T> the interval value type
+ */
+final class IntervalTree<T> {
+
+    private static final class Entry<T> {
+
+        final int hi;
+        final T value;
+
+        Entry(int hi, T value) {
+            this.hi = hi;
+            this.value = value;
+        }
+    }
+
+    private static final class Node<T> {
+
+        final int lo;
+        final List<Entry<T>> entries = new ArrayList<>(1);
+        @Nullable Node<T> left;
+        @Nullable Node<T> right;
+        int height = 1;
+        int maxHi;
+
+        Node(int lo) {
+            this.lo = lo;
+        }
+    }
+
+    private @Nullable Node<T> root;
+    private int size;
+
+    /**
+     * Returns the number of intervals in the tree.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns whether the tree contains no intervals.
+     */
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Adds the closed interval [lo, hi] with the given value.
+     */
+    void insert(int lo, int hi, T value) {
+        if (hi < lo) {
+            throw new IllegalArgumentException("Invalid interval [" + lo + ", " + hi + "]");
+        }
+        root = insert(root, lo, hi, value);
+        size++;
+    }
+
+    /**
+     * Removes the closed interval [lo, hi] with the given value.
+     *
+     * @return {@code true} if the interval has been found and removed
+     */
+    boolean remove(int lo, int hi, T value) {
+        var removed = new boolean[1];
+        root = remove(root, lo, hi, value, removed);
+        if (removed[0]) {
+            size--;
+        }
+        return removed[0];
+    }
+
+    /**
+     * Passes the values of all intervals containing the given point to the consumer,
+     * in the order of the interval start.
+     */
+    void query(int point, Consumer<T> consumer) {
+        query(root, point, consumer);
+    }
+
+    /**
+     * Removes all intervals.
+     */
+    void clear() {
+        root = null;
+        size = 0;
+    }
+
+    //*************************************************************************
+
+    private Node<T> insert(@Nullable Node<T> node, int lo, int hi, T value) {
+        if (node == null) {
+            node = new Node<>(lo);
+            node.entries.add(new Entry<>(hi, value));
+            node.maxHi = hi;
+            return node;
+        }
+
+        if (lo < node.lo) {
+            node.left = insert(node.left, lo, hi, value);
+        } else if (lo > node.lo) {
+            node.right = insert(node.right, lo, hi, value);
+        } else {
+            node.entries.add(new Entry<>(hi, value));
+        }
+
+        return balance(node);
+    }
+
+    private @Nullable Node<T> remove(@Nullable Node<T> node, int lo, int hi, T value, boolean[] removed) {
+        if (node == null) {
+            return null;
+        }
+
+        if (lo < node.lo) {
+            node.left = remove(node.left, lo, hi, value, removed);
+        } else if (lo > node.lo) {
+            node.right = remove(node.right, lo, hi, value, removed);
+        } else {
+            for (int i = 0; i < node.entries.size(); i++) {
+                var entry = node.entries.get(i);
+                if (entry.hi == hi && entry.value.equals(value)) {
+                    node.entries.remove(i);
+                    removed[0] = true;
+                    break;
+                }
+            }
+
+            if (node.entries.isEmpty()) {
+                if (node.left == null) {
+                    return node.right;
+                }
+                if (node.right == null) {
+                    return node.left;
+                }
+
+                // replace with the leftmost node of the right subtree
+                var successor = node.right;
+                while (successor.left != null) {
+                    successor = successor.left;
+                }
+                var replacement = new Node<T>(successor.lo);
+                replacement.entries.addAll(successor.entries);
+                replacement.left = node.left;
+                replacement.right = removeMin(node.right);
+                node = replacement;
+            }
+        }
+
+        return balance(node);
+    }
+
+    private @Nullable Node<T> removeMin(Node<T> node) {
+        if (node.left == null) {
+            return node.right;
+        }
+        node.left = removeMin(node.left);
+        return balance(node);
+    }
+
+    private void query(@Nullable Node<T> node, int point, Consumer<T> consumer) {
+        if (node == null || point > node.maxHi) {
+            return;
+        }
+
+        query(node.left, point, consumer);
+
+        if (point >= node.lo) {
+            for (var entry : node.entries) {
+                if (point <= entry.hi) {
+                    consumer.accept(entry.value);
+                }
+            }
+            query(node.right, point, consumer);
+        }
+    }
+
+    private Node<T> balance(Node<T> node) {
+        update(node);
+        int factor = height(node.left) - height(node.right);
+
+        if (factor > 1) {
+            var left = node.left;
+            if (left != null && height(left.left) < height(left.right)) {
+                node.left = rotateLeft(left);
+            }
+            return rotateRight(node);
+        }
+
+        if (factor < -1) {
+            var right = node.right;
+            if (right != null && height(right.right) < height(right.left)) {
+                node.right = rotateRight(right);
+            }
+            return rotateLeft(node);
+        }
+
+        return node;
+    }
+
+    private Node<T> rotateRight(Node<T> node) {
+        var pivot = node.left;
+        if (pivot == null) {
+            return node;
+        }
+        node.left = pivot.right;
+        pivot.right = node;
+        update(node);
+        update(pivot);
+        return pivot;
+    }
+
+    private Node<T> rotateLeft(Node<T> node) {
+        var pivot = node.right;
+        if (pivot == null) {
+            return node;
+        }
+        node.right = pivot.left;
+        pivot.left = node;
+        update(node);
+        update(pivot);
+        return pivot;
+    }
+
+    private void update(Node<T> node) {
+        node.height = 1 + Math.max(height(node.left), height(node.right));
+
+        int max = Integer.MIN_VALUE;
+        for (var entry : node.entries) {
+            max = Math.max(max, entry.hi);
+        }
+        if (node.left != null) {
+            max = Math.max(max, node.left.maxHi);
+        }
+        if (node.right != null) {
+            max = Math.max(max, node.right.maxHi);
+        }
+        node.maxHi = max;
+    }
+
+    private static int height(@Nullable Node<?> node) {
+        return node != null ? node.height : 0;
+    }
+}
@@ -0,0 +1,152 @@
+/* SPDX-License-Identifier: MIT */
+
+package tm4javafx.richtext;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.jspecify.annotations.Nullable;
+import tm4java.grammar.IGrammar;
+import tm4java.grammar.IStateStack;
+import tm4java.theme.ITheme;
+
+/**
+ * A bounded, document-independent cache of tokenized lines.
+ * <p>
+ * Many lines repeat exactly within and across documents: blank lines, closing
+ * braces, import blocks, license headers, log prefixes. The tokenization result
+ * of a line only depends on the line text, the grammar state at the start of
+ * the line and the grammar itself, so such lines can be served from the cache
+ * instead of calling {@link IGrammar#tokenizeLine}. Because the cached tokens
+ * carry the resolved style, the theme is a part of the key too.
+ * <p>
+ * The cache is opt-in, see {@link StyleProvider#setLineTokenCache(LineTokenCache)}.
+ * A single instance can be shared between several style providers and is thread-safe.
+ * It works best with interned grammar states, see {@link StateStackInterner}.
+ */
+public class LineTokenCache {
+
+    public static final int DEFAULT_MAX_SIZE = 10_000;
+    public static final int DEFAULT_MAX_LINE_LENGTH = 256;
+
+    /**
+     * The cached tokenization result.
+     *
+     * @param tokens   the unmodifiable list of styled tokens
+     * @param endState the grammar state at the end of the line
+     */
+    public record Entry(List<StyledToken> tokens, @Nullable IStateStack endState) {
+    }
+
+    protected record Key(IGrammar grammar, ITheme theme, @Nullable IStateStack startState, String line) {
+    }
+
+    protected final int maxSize;
+    protected final int maxLineLength;
+    protected final LinkedHashMap<Key, Entry> cache;
+
+    protected long hits;
+    protected long misses;
+
+    /**
+     * Creates a new cache with the default settings.
+     */
+    public LineTokenCache() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_MAX_LINE_LENGTH);
+    }
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maxSize       the maximum number of cached lines
+     * @param maxLineLength the maximum length of the line to be cached, longer lines are
+     *                      unlikely to repeat, but are expensive to hash and compare
+     */
+    public LineTokenCache(int maxSize, int maxLineLength) {
+        if (maxSize <= 0 || maxLineLength <= 0) {
+            throw new IllegalArgumentException("Invalid line token cache settings");
+        }
+
+        this.maxSize = maxSize;
+        this.maxLineLength = maxLineLength;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return size() > LineTokenCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * Returns whether the given line can be cached.
+     */
+    public boolean isCacheable(String line) {
+        return line.length() <= maxLineLength;
+    }
+
+    /**
+     * Returns the cached tokenization result, or {@code null} if there's none.
+     */
+    public synchronized @Nullable Entry get(IGrammar grammar, ITheme theme,
+                                            @Nullable IStateStack startState, String line) {
+        if (!isCacheable(line)) {
+            return null;
+        }
+
+        var entry = cache.get(new Key(grammar, theme, startState, line));
+        if (entry != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+
+        return entry;
+    }
+
+    /**
+     * Caches the tokenization result of the given line.
+     *
+     * @return the cached entry, or {@code null} if the line is not cacheable
+     */
+    public synchronized @Nullable Entry put(IGrammar grammar, ITheme theme,
+                                            @Nullable IStateStack startState, String line,
+                                            List<StyledToken> tokens, @Nullable IStateStack endState) {
+        if (!isCacheable(line)) {
+            return null;
+        }
+
+        var entry = new Entry(List.copyOf(tokens), endState);
+        cache.put(new Key(grammar, theme, startState, line), entry);
+        return entry;
+    }
+
+    /**
+     * Returns the number of cached lines.
+     */
+    public synchronized int size() {
+        return cache.size();
+    }
+
+    /**
+     * Returns the number of cache hits since creation or the last {@link #clear()}.
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of cache misses since creation or the last {@link #clear()}.
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Removes all cached lines and resets the statistics.
+     */
+    public synchronized void clear() {
+        cache.clear();
+        hits = 0;
+        misses = 0;
+    }
+}
@@ -0,0 +1,407 @@
+/* SPDX-License-Identifier: MIT */
+
+package tm4javafx.richtext;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.SimpleObjectProperty;
+import jfx.incubator.scene.control.richtext.RichTextArea;
+import jfx.incubator.scene.control.richtext.StyleResolver;
+import jfx.incubator.scene.control.richtext.TextPos;
+import jfx.incubator.scene.control.richtext.model.RichParagraph;
+import jfx.incubator.scene.control.richtext.model.StyleAttributeMap;
+import jfx.incubator.scene.control.richtext.model.StyledTextModelViewOnlyBase;
+import org.jspecify.annotations.Nullable;
+import tm4java.grammar.IStateStack;
+
+/**
+ * The model of a bounded, highlighted log view for the {@code RichTextArea}.
+ * <p>
+ * The model keeps only the last {@link #getMaxLines()} lines (and at most
+ * {@link #getMaxChars()} characters) in a ring buffer. New lines are tokenized
+ * continuing from the grammar state at the end of the previous ones, and the oldest
+ * lines are evicted in O(1), so the memory stays flat regardless of the amount of
+ * appended output. The styled paragraphs are created only when requested by the
+ * {@code RichTextArea}.
+ * <p>
+ * Unlike the other models, the {@link #textProperty()} only contains the initial text:
+ * the lines added by {@link #appendText(String)} and {@link #appendLines(List)} are not
+ * added to it, nor to the {@link #appendedTextProperty()}, because it would grow without
+ * bounds. An incomplete trailing line is kept until its line break is appended.
+ * <p>
+ * Usage:
+ * <pre>{@code
+ * var model = new LogViewModel(50_000, LogViewModel.UNLIMITED);
+ * model.setStyleProvider(provider);
+ * model.setRichTextArea(richTextArea);
+ * tailer.onLines(lines -> Platform.runLater(() -> model.appendLines(lines)));
+ * }</pre>
+ */
+public class LogViewModel extends RichTextModel {
+
+    public static final int DEFAULT_MAX_LINES = 10_000;
+    public static final long UNLIMITED = Long.MAX_VALUE;
+
+    /**
+     * The styled tokens of a buffered line and the line length.
+     */
+    protected record BufferedLine(List<StyledToken> tokens, int length) {
+    }
+
+    protected final int maxLines;
+    protected final long maxChars;
+    protected final @Nullable BufferedLine[] ring;
+    protected final LogTextModel model = new LogTextModel();
+
+    protected int head;
+    protected int count;
+    protected long charCount;
+    protected @Nullable IStateStack state;
+    protected @Nullable ThemeStylesheet stylesheet;
+
+    /**
+     * Creates a new log view model with the default settings.
+     */
+    public LogViewModel() {
+        this(DEFAULT_MAX_LINES, UNLIMITED);
+    }
+
+    /**
+     * Creates a new log view model.
+     *
+     * @param maxLines the maximum number of lines to keep
+     * @param maxChars the maximum number of characters to keep, the last line is kept
+     *                 even if it's longer
+     */
+    public LogViewModel(int maxLines, long maxChars) {
+        if (maxLines <= 0 || maxChars <= 0) {
+            throw new IllegalArgumentException("Invalid log view model settings");
+        }
+
+        this.maxLines = maxLines;
+        this.maxChars = maxChars;
+        this.ring = new BufferedLine[maxLines];
+        init();
+    }
+
+    protected void init() {
+        textProperty().subscribe(this::onTextContentChanged);
+        styleProviderProperty().subscribe(this::refresh);
+        highlightingPolicyProperty().subscribe(this::refresh);
+        richTextAreaProperty().subscribe(this::onRichTextAreaChanged);
+    }
+
+    /**
+     * Re-tokenizes the buffered lines, e.g. after the theme change. The grammar state
+     * of the evicted lines is lost, so the oldest buffered line starts from the
+     * initial state.
+     */
+    public void refresh() {
+        var lines = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            lines.add(getLineText(get(i)));
+        }
+
+        clearBuffer();
+        state = null;
+        appendLines(lines);
+    }
+
+    /**
+     * Removes all buffered lines.
+     */
+    public void clear() {
+        partialLine.setLength(0);
+        skipLineFeed = false;
+        clearBuffer();
+    }
+
+    /**
+     * Returns the maximum number of lines to keep.
+     */
+    public int getMaxLines() {
+        return maxLines;
+    }
+
+    /**
+     * Returns the maximum number of characters to keep.
+     */
+    public long getMaxChars() {
+        return maxChars;
+    }
+
+    /**
+     * Returns the number of buffered lines.
+     */
+    public int getLineCount() {
+        return count;
+    }
+
+    /**
+     * Appends the given text. The complete lines are added to the view, while the
+     * incomplete trailing line is kept until its line break is appended.
+     */
+    @Override
+    public void appendText(String text) {
+        if (!text.isEmpty()) {
+            appendLines(takeCompleteLines(text));
+        }
+    }
+
+    /**
+     * Appends the given lines, which must not contain line breaks. If more lines
+     * are appended than the model can keep, the excess lines are only tokenized
+     * to maintain the grammar state.
+     */
+    public void appendLines(List<String> lines) {
+        if (lines.isEmpty()) {
+            return;
+        }
+
+        var provider = getStyleProvider();
+        var mode = updateHighlightingMode(charCount, count);
+        stylesheet = provider != null && provider.isStyleClassesEnabled() ? provider.getStylesheet() : null;
+
+        int skip = Math.max(0, lines.size() - maxLines);
+        var added = new ArrayList<BufferedLine>(lines.size() - skip);
+        long addedChars = 0;
+
+        if (provider != null) {
+            provider.setState(state);
+        }
+        for (int i = 0; i < lines.size(); i++) {
+            var line = lines.get(i);
+            var tokens = provider != null ? provider.tokenize(line, mode) : List.of(new StyledToken(line, null));
+            if (i >= skip) {
+                added.add(new BufferedLine(tokens, line.length()));
+                addedChars += line.length();
+            }
+        }
+        if (provider != null) {
+            state = provider.getState();
+        }
+
+        // the added lines alone may not fit into the character limit
+        int first = 0;
+        while (addedChars > maxChars && added.size() - first > 1) {
+            addedChars -= added.get(first++).length();
+        }
+        var kept = added.subList(first, added.size());
+
+        int evict = 0;
+        long evictedChars = 0;
+        while (evict < count
+            && (count - evict + kept.size() > maxLines || charCount - evictedChars + addedChars > maxChars)) {
+            evictedChars += get(evict++).length();
+        }
+
+        removeFirst(evict);
+        addLast(kept);
+    }
+
+    //*************************************************************************
+    // Properties
+    //*************************************************************************
+
+    protected final ObjectProperty<@Nullable RichTextArea> richTextArea = new SimpleObjectProperty<>();
+
+    /**
+     * Contains a {@code RichTextArea} associated with the model.
+     */
+    public ObjectProperty<@Nullable RichTextArea> richTextAreaProperty() {
+        return richTextArea;
+    }
+
+    /**
+     * Returns the {@code RichTextArea} associated with the model.
+     */
+    public @Nullable RichTextArea getRichTextArea() {
+        return richTextAreaProperty().get();
+    }
+
+    /**
+     * Sets the {@code RichTextArea} associated with the model.
+     */
+    public void setRichTextArea(@Nullable RichTextArea richTextArea) {
+        richTextAreaProperty().set(richTextArea);
+    }
+
+    //*************************************************************************
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void onTextContentChanged() {
+        var content = text.get();
+        clear();
+        state = null;
+
+        if (content != null && !content.isEmpty()) {
+            appendText(content);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void onTextAppended(StyleProvider provider, List<String> lines) {
+        appendLines(lines);
+    }
+
+    protected void onRichTextAreaChanged(@Nullable RichTextArea old, @Nullable RichTextArea val) {
+        if (old != null && old.getModel() == model) {
+            old.setModel(null);
+        }
+        if (val != null) {
+            val.setModel(model);
+        }
+    }
+
+    /**
+     * Returns the buffered line at the given index, the oldest line has index zero.
+     */
+    protected BufferedLine get(int index) {
+        return Objects.requireNonNull(ring[(head + index) % maxLines]);
+    }
+
+    protected void removeFirst(int lines) {
+        if (lines <= 0) {
+            return;
+        }
+
+        if (lines >= count) {
+            clearBuffer();
+            return;
+        }
+
+        for (int i = 0; i < lines; i++) {
+            int slot = (head + i) % maxLines;
+            charCount -= get(i).length();
+            ring[slot] = null;
+        }
+        head = (head + lines) % maxLines;
+        count -= lines;
+
+        model.fireLinesRemoved(TextPos.ZERO, TextPos.ofLeading(lines, 0));
+    }
+
+    protected void addLast(List<BufferedLine> lines) {
+        if (lines.isEmpty()) {
+            return;
+        }
+
+        boolean wasEmpty = count == 0;
+        var start = wasEmpty ? TextPos.ZERO : TextPos.ofLeading(count - 1, get(count - 1).length());
+
+        for (var line : lines) {
+            ring[(head + count) % maxLines] = line;
+            count++;
+            charCount += line.length();
+        }
+
+        int size = lines.size();
+        int charsBottom = lines.getLast().length();
+        if (wasEmpty) {
+            // the first line goes into the empty paragraph
+            model.fireLinesAdded(start, lines.getFirst().length(), size - 1, size > 1 ? charsBottom : 0);
+        } else {
+            model.fireLinesAdded(start, 0, size, charsBottom);
+        }
+    }
+
+    protected void clearBuffer() {
+        if (count == 0) {
+            return;
+        }
+
+        var end = TextPos.ofLeading(count - 1, get(count - 1).length());
+        Arrays.fill(ring, null);
+        head = 0;
+        count = 0;
+        charCount = 0;
+
+        model.fireLinesRemoved(TextPos.ZERO, end);
+    }
+
+    protected String getLineText(BufferedLine line) {
+        var tokens = line.tokens();
+        if (tokens.size() == 1) {
+            return tokens.getFirst().text();
+        }
+
+        var sb = new StringBuilder(line.length());
+        for (var token : tokens) {
+            sb.append(token.text());
+        }
+        return sb.toString();
+    }
+
+    protected RichParagraph buildParagraph(BufferedLine line) {
+        var paragraph = RichParagraph.builder();
+        for (var token : line.tokens()) {
+            var style = token.style();
+            var styleClasses = stylesheet != null && style != null ? stylesheet.getStyleClasses(style) : null;
+            if (styleClasses != null) {
+                paragraph.addWithStyleNames(token.text(), styleClasses);
+            } else if (style != null) {
+                paragraph.addSegment(token.text(), style);
+            } else {
+                paragraph.addSegment(token.text());
+            }
+        }
+        return paragraph.build();
+    }
+
+    //*************************************************************************
+
+    /**
+     * The view-only styled text model backed by the ring buffer. An empty buffer
+     * is represented by a single empty paragraph.
+     */
+    protected class LogTextModel extends StyledTextModelViewOnlyBase {
+
+        @Override
+        public int size() {
+            return Math.max(count, 1);
+        }
+
+        @Override
+        public String getPlainText(int index) {
+            return index < count ? getLineText(get(index)) : "";
+        }
+
+        @Override
+        public RichParagraph getParagraph(int index) {
+            return index < count ? buildParagraph(get(index)) : RichParagraph.builder().build();
+        }
+
+        @Override
+        public StyleAttributeMap getStyleAttributeMap(StyleResolver resolver, TextPos pos) {
+            if (pos.index() >= count) {
+                return StyleAttributeMap.EMPTY;
+            }
+
+            int offset = 0;
+            for (var token : get(pos.index()).tokens()) {
+                offset += token.text().length();
+                if (pos.offset() < offset) {
+                    return token.style() != null ? token.style() : StyleAttributeMap.EMPTY;
+                }
+            }
+            return StyleAttributeMap.EMPTY;
+        }
+
+        protected void fireLinesRemoved(TextPos start, TextPos end) {
+            fireChangeEvent(start, end, 0, 0, 0);
+        }
+
+        protected void fireLinesAdded(TextPos start, int charsTop, int linesAdded, int charsBottom) {
+            fireChangeEvent(start, start, charsTop, linesAdded, charsBottom);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/* SPDX-License-Identifier: MIT */
+
+package tm4javafx.richtext;
+
+import java.util.Objects;
+import jfx.incubator.scene.control.richtext.TextPos;
+import jfx.incubator.scene.control.richtext.model.StyleAttributeMap;
+
+/**
+ * Represents a text range highlighted on top of the syntax styles, such as
+ * a search match, a diagnostic or a diff marker. See {@link HighlightOverlay}.
+ *
+ * @param start the range start (inclusive)
+ * @param end   the range end (exclusive)
+ * @param style the style attributes combined with the syntax style
+ */
+public record OverlayRange(TextPos start, TextPos end, StyleAttributeMap style) {
+
+    public OverlayRange {
+        Objects.requireNonNull(start, "Start must not be null");
+        Objects.requireNonNull(end, "End must not be null");
+        Objects.requireNonNull(style, "Style must not be null");
+
+        if (start.compareTo(end) > 0) {
+            throw new IllegalArgumentException("Range start must not be after the end");
+        }
+    }
+
+    /**
+     * Creates a range within a single line.
+     *
+     * @param line        the line index
+     * @param startOffset the start offset within the line (inclusive)
+     * @param endOffset   the end offset within the line (exclusive)
+     * @param style       the style attributes
+     */
+    public static OverlayRange of(int line, int startOffset, int endOffset, StyleAttributeMap style) {
+        return new OverlayRange(TextPos.ofLeading(line, startOffset), TextPos.ofLeading(line, endOffset), style);
+    }
+
+    /**
+     * Returns the start offset of the range within the given line.
+     */
+    public int getStartOffset(int line) {
+        return start.index() == line ? start.offset() : 0;
+    }
+
+    /**
+     * Returns the end offset of the range within the given line, or {@link Integer#MAX_VALUE}
+     * if the range continues to the next line.
+     */
+    public int getEndOffset(int line) {
+        return end.index() == line ? end.offset() : Integer.MAX_VALUE;
+    }
+}
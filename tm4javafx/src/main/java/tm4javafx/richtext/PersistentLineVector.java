@@ -0,0 +1,353 @@
+/* SPDX-License-Identifier: MIT */
+
+package tm4javafx.richtext;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * An immutable, structurally shared list of lines, implemented as an AVL tree of
+ * fixed-size chunks (a rope).
+ * <p>
+ * Each modification returns a new version that shares all untouched chunks with
+ * the previous one, so setting or replacing a range of lines takes O(log n + k),
+ * where k is the number of new lines. Because the versions never change, a writer
+ * can prepare the next version while the readers still use the previous one, and
+ * publish it with a single volatile reference write. The readers need no locks.
+ *
+ * @param <T> the line type
+ */
+public final class PersistentLineVector<T extends @Nullable Object> {
+
+    static final int CHUNK_SIZE = 64;
+
+    private static final PersistentLineVector<?> EMPTY = new PersistentLineVector<>(null);
+
+    private abstract static sealed class Node permits Leaf, Branch {
+
+        abstract int size();
+
+        abstract int height();
+    }
+
+    private static final class Leaf extends Node {
+
+        final @Nullable Object[] items;
+
+        Leaf(@Nullable Object[] items) {
+            this.items = items;
+        }
+
+        @Override
+        int size() {
+            return items.length;
+        }
+
+        @Override
+        int height() {
+            return 1;
+        }
+    }
+
+    private static final class Branch extends Node {
+
+        final Node left;
+        final Node right;
+        final int size;
+        final int height;
+
+        Branch(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+            this.size = left.size() + right.size();
+            this.height = 1 + Math.max(left.height(), right.height());
+        }
+
+        @Override
+        int size() {
+            return size;
+        }
+
+        @Override
+        int height() {
+            return height;
+        }
+    }
+
+    private final @Nullable Node root;
+
+    private PersistentLineVector(@Nullable Node root) {
+        this.root = root;
+    }
+
+    /**
+     * Returns the empty vector.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends @Nullable Object> PersistentLineVector<T> empty() {
+        return (PersistentLineVector<T>) EMPTY;
+    }
+
+    /**
+     * Creates a vector with the elements of the given list.
+     */
+    public static <T extends @Nullable Object> PersistentLineVector<T> of(List<? extends T> items) {
+        return items.isEmpty() ? empty() : new PersistentLineVector<>(build(items));
+    }
+
+    /**
+     * Returns the number of lines.
+     */
+    public int size() {
+        return root != null ? root.size() : 0;
+    }
+
+    /**
+     * Returns whether the vector contains no lines.
+     */
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    /**
+     * Returns the line at the given index.
+     */
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+        checkIndex(index, size());
+
+        var node = root;
+        while (node instanceof Branch branch) {
+            int leftSize = branch.left.size();
+            if (index < leftSize) {
+                node = branch.left;
+            } else {
+                node = branch.right;
+                index -= leftSize;
+            }
+        }
+
+        return (T) ((Leaf) node).items[index];
+    }
+
+    /**
+     * Returns a new version with the line at the given index replaced.
+     */
+    public PersistentLineVector<T> set(int index, T item) {
+        checkIndex(index, size());
+        return new PersistentLineVector<>(set(root, index, item));
+    }
+
+    /**
+     * Returns a new version with the lines in the range [from, to) replaced
+     * by the given ones. The number of lines may differ.
+     */
+    public PersistentLineVector<T> replace(int from, int to, List<? extends T> items) {
+        int size = size();
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException("Invalid range [" + from + ", " + to + ") of " + size);
+        }
+
+        if (from == to && items.isEmpty()) {
+            return this;
+        }
+
+        var head = split(root, from, true);
+        var tail = split(root, to, false);
+        var middle = items.isEmpty() ? null : build(items);
+
+        var result = concat(concat(head, middle), tail);
+        return result != null ? new PersistentLineVector<>(result) : empty();
+    }
+
+    /**
+     * Returns an unmodifiable list view of this version.
+     */
+    public List<T> asList() {
+        return new ListView();
+    }
+
+    //*************************************************************************
+
+    private final class ListView extends AbstractList<T> implements RandomAccess {
+
+        @Override
+        public T get(int index) {
+            return PersistentLineVector.this.get(index);
+        }
+
+        @Override
+        public int size() {
+            return PersistentLineVector.this.size();
+        }
+    }
+
+    private static Node build(List<?> items) {
+        int count = (items.size() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        var leaves = new Node[count];
+        for (int i = 0; i < count; i++) {
+            int from = i * CHUNK_SIZE;
+            int to = Math.min(from + CHUNK_SIZE, items.size());
+            leaves[i] = new Leaf(items.subList(from, to).toArray());
+        }
+        return build(leaves, 0, count);
+    }
+
+    private static Node build(Node[] leaves, int from, int to) {
+        if (to - from == 1) {
+            return leaves[from];
+        }
+        int mid = (from + to) >>> 1;
+        return new Branch(build(leaves, from, mid), build(leaves, mid, to));
+    }
+
+    private static Node set(@Nullable Node node, int index, @Nullable Object item) {
+        if (node instanceof Branch branch) {
+            int leftSize = branch.left.size();
+            return index < leftSize
+                ? new Branch(set(branch.left, index, item), branch.right)
+                : new Branch(branch.left, set(branch.right, index - leftSize, item));
+        }
+
+        var items = ((Leaf) node).items.clone();
+        items[index] = item;
+        return new Leaf(items);
+    }
+
+    /**
+     * Returns the lines before (head) or starting from (tail) the given index.
+     */
+    private static @Nullable Node split(@Nullable Node node, int index, boolean head) {
+        if (node == null) {
+            return null;
+        }
+        if (index <= 0) {
+            return head ? null : node;
+        }
+        if (index >= node.size()) {
+            return head ? node : null;
+        }
+
+        if (node instanceof Branch branch) {
+            int leftSize = branch.left.size();
+            if (index < leftSize) {
+                var part = split(branch.left, index, head);
+                return head ? part : link(part, branch.right);
+            }
+            var part = split(branch.right, index - leftSize, head);
+            return head ? link(branch.left, part) : part;
+        }
+
+        var items = ((Leaf) node).items;
+        return new Leaf(head ? Arrays.copyOfRange(items, 0, index) : Arrays.copyOfRange(items, index, items.length));
+    }
+
+    /**
+     * Concatenates the given nodes, merging the leaves at the seam if they fit into
+     * a single chunk.
+     */
+    private static @Nullable Node concat(@Nullable Node left, @Nullable Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+
+        // keep the chunks filled, splits and small insertions leave partial leaves
+        // at the seam, which would otherwise pile up with repeated edits
+        var a = lastLeaf(left);
+        var b = firstLeaf(right);
+        if (a.size() + b.size() > CHUNK_SIZE) {
+            return join(left, right);
+        }
+
+        var items = Arrays.copyOf(a.items, a.size() + b.size());
+        System.arraycopy(b.items, 0, items, a.size(), b.size());
+        return link(link(withoutLastLeaf(left), new Leaf(items)), withoutFirstLeaf(right));
+    }
+
+    /**
+     * Concatenates the given nodes without merging the leaves.
+     */
+    private static @Nullable Node link(@Nullable Node left, @Nullable Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        return join(left, right);
+    }
+
+    private static Leaf firstLeaf(Node node) {
+        while (node instanceof Branch branch) {
+            node = branch.left;
+        }
+        return (Leaf) node;
+    }
+
+    private static Leaf lastLeaf(Node node) {
+        while (node instanceof Branch branch) {
+            node = branch.right;
+        }
+        return (Leaf) node;
+    }
+
+    private static @Nullable Node withoutFirstLeaf(Node node) {
+        if (node instanceof Branch branch) {
+            return link(withoutFirstLeaf(branch.left), branch.right);
+        }
+        return null;
+    }
+
+    private static @Nullable Node withoutLastLeaf(Node node) {
+        if (node instanceof Branch branch) {
+            return link(branch.left, withoutLastLeaf(branch.right));
+        }
+        return null;
+    }
+
+    private static Node join(Node left, Node right) {
+        if (left.height() > right.height() + 1) {
+            var branch = (Branch) left;
+            return balance(branch.left, join(branch.right, right));
+        }
+        if (right.height() > left.height() + 1) {
+            var branch = (Branch) right;
+            return balance(join(left, branch.left), branch.right);
+        }
+        return new Branch(left, right);
+    }
+
+    private static Node balance(Node left, Node right) {
+        if (left.height() > right.height() + 1) {
+            var l = (Branch) left;
+            if (l.left.height() >= l.right.height()) {
+                return new Branch(l.left, new Branch(l.right, right));
+            }
+            var lr = (Branch) l.right;
+            return new Branch(new Branch(l.left, lr.left), new Branch(lr.right, right));
+        }
+
+        if (right.height() > left.height() + 1) {
+            var r = (Branch) right;
+            if (r.right.height() >= r.left.height()) {
+                return new Branch(new Branch(left, r.left), r.right);
+            }
+            var rl = (Branch) r.left;
+            return new Branch(new Branch(left, rl.left), new Branch(rl.right, r.right));
+        }
+
+        return new Branch(left, right);
+    }
+
+    private static void checkIndex(int index, int size) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size);
+        }
+    }
+}
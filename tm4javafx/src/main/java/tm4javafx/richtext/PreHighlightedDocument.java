@@ -0,0 +1,315 @@
+/* SPDX-License-Identifier: MIT */
+
+package tm4javafx.richtext;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.zip.CRC32C;
+import jfx.incubator.scene.control.richtext.RichTextArea;
+import jfx.incubator.scene.control.richtext.model.StyleAttributeMap;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * A document highlighted ahead of time, e.g. during the build, that can be displayed
+ * without loading the grammar and the theme.
+ * <p>
+ * The document is stored in a compact binary format next to the resource it was created
+ * from, with the {@link #FILE_EXTENSION} appended to the resource name. The document
+ * text itself is not stored, the tokens only keep their length and style, so the
+ * resource must be loaded as well. If the resource has changed since it was highlighted,
+ * the document is ignored and the text is tokenized as usual, or displayed as plain text
+ * if the style provider has no grammar.
+ * <p>
+ * Usage:
+ * <pre>{@code
+ * var document = PreHighlightedDocument.load(Help.class, "example.java");
+ * var model = new RichTextAreaModel();
+ * model.setStyleProvider(new StyleProvider()); // no grammar or theme needed
+ * model.setPreHighlightedDocument(document);
+ * model.setText(text);
+ * if (document != null) {
+ *     StyleHelper.applyThemeColors(richTextArea, document);
+ * }
+ * }</pre>
+ * <p>
+ * The tm4javafx-prehighlight module creates the documents for the configured
+ * resources during the build.
+ */
+public final class PreHighlightedDocument {
+
+    static final int MAGIC = 0x544D5048; // TMPH
+    static final int FORMAT_VERSION = 1;
+    // guards against allocating huge arrays when reading a corrupted file
+    static final int MAX_COUNT = 1 << 24;
+
+    public static final String FILE_EXTENSION = ".tmph";
+
+    private final String grammarScope;
+    private final String backgroundColor;
+    private final String foregroundColor;
+    private final int contentHash;
+    private final StyleAttributeMap[] styles;
+    // the length and the style index plus one of each token, per line
+    private final int[][] tokens;
+
+    private PreHighlightedDocument(String grammarScope, String backgroundColor, String foregroundColor,
+                                   int contentHash, StyleAttributeMap[] styles, int[][] tokens) {
+        this.grammarScope = grammarScope;
+        this.backgroundColor = backgroundColor;
+        this.foregroundColor = foregroundColor;
+        this.contentHash = contentHash;
+        this.styles = styles;
+        this.tokens = tokens;
+    }
+
+    /**
+     * Highlights the given text with the grammar and the theme of the given style provider.
+     * The text is split into lines the same way the models do.
+     *
+     * @throws IllegalStateException if the grammar or the theme is not set
+     */
+    public static PreHighlightedDocument highlight(StyleProvider provider, String text) {
+        var grammar = provider.getGrammar();
+        var settings = provider.getThemeSettings();
+        if (grammar == null || settings == null) {
+            throw new IllegalStateException("Grammar and theme must be set");
+        }
+
+        String[] lines = text.split(StyledModel.LINE_SPLIT_PATTERN);
+        var styleIndexes = new HashMap<StyleAttributeMap, Integer>();
+        var styleList = new ArrayList<StyleAttributeMap>();
+        var lineTokens = new int[lines.length][];
+
+        provider.setState(null);
+        for (int i = 0; i < lines.length; i++) {
+            var tokens = provider.tokenize(lines[i]);
+            var data = new int[tokens.size() * 2];
+            for (int t = 0; t < tokens.size(); t++) {
+                var token = tokens.get(t);
+                var style = token.style();
+                data[2 * t] = token.text().length();
+                data[2 * t + 1] = style != null ? 1 + styleIndexes.computeIfAbsent(style, s -> {
+                    styleList.add(s);
+                    return styleList.size() - 1;
+                }) : 0;
+            }
+            lineTokens[i] = data;
+        }
+        provider.setState(null);
+
+        return new PreHighlightedDocument(grammar.getScopeName(), settings.getBackgroundColor(),
+            settings.getForegroundColor(), hash(lines), styleList.toArray(StyleAttributeMap[]::new), lineTokens);
+    }
+
+    /**
+     * Reads the document from the given stream. The stream is not closed.
+     *
+     * @throws IOException if the stream doesn't contain a document in the supported format
+     */
+    public static PreHighlightedDocument read(InputStream input) throws IOException {
+        var in = new DataInputStream(new BufferedInputStream(input));
+        if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+            throw new IOException("Unsupported pre-highlighted document format");
+        }
+
+        var grammarScope = in.readUTF();
+        var backgroundColor = in.readUTF();
+        var foregroundColor = in.readUTF();
+        int contentHash = in.readInt();
+
+        var styles = new StyleAttributeMap[readCount(in)];
+        for (int i = 0; i < styles.length; i++) {
+            int flags = in.readInt();
+            int textColor = in.readInt();
+            int background = in.readInt();
+            styles[i] = StyleCodec.decode(flags, textColor, background);
+        }
+
+        var tokens = new int[readCount(in)][];
+        for (int i = 0; i < tokens.length; i++) {
+            var data = new int[readCount(in) * 2];
+            for (int t = 0; t < data.length; t += 2) {
+                data[t] = readVarInt(in);
+                data[t + 1] = readVarInt(in);
+                if (data[t + 1] > styles.length) {
+                    throw new IOException("Invalid style index: " + (data[t + 1] - 1));
+                }
+            }
+            tokens[i] = data;
+        }
+
+        return new PreHighlightedDocument(grammarScope, backgroundColor, foregroundColor, contentHash, styles, tokens);
+    }
+
+    /**
+     * Loads the pre-highlighted document of the given resource, i.e. the resource with
+     * the {@link #FILE_EXTENSION} appended to its name.
+     *
+     * @param anchor       the class to resolve the resource name against
+     * @param resourceName the name of the highlighted resource
+     * @return the document, or {@code null} if it doesn't exist or can't be read
+     */
+    public static @Nullable PreHighlightedDocument load(Class<?> anchor, String resourceName) {
+        try (var input = anchor.getResourceAsStream(resourceName + FILE_EXTENSION)) {
+            return input != null ? read(input) : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes the document to the given stream. The stream is not closed.
+     */
+    public void write(OutputStream output) throws IOException {
+        var out = new DataOutputStream(new BufferedOutputStream(output));
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeUTF(grammarScope);
+        out.writeUTF(backgroundColor);
+        out.writeUTF(foregroundColor);
+        out.writeInt(contentHash);
+
+        writeVarInt(out, styles.length);
+        for (var style : styles) {
+            out.writeInt(StyleCodec.getFlags(style));
+            out.writeInt(StyleCodec.getTextColor(style));
+            out.writeInt(StyleCodec.getBackground(style));
+        }
+
+        writeVarInt(out, tokens.length);
+        for (var data : tokens) {
+            writeVarInt(out, data.length / 2);
+            for (int value : data) {
+                writeVarInt(out, value);
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Returns the scope name of the grammar the document was highlighted with.
+     */
+    public String getGrammarScope() {
+        return grammarScope;
+    }
+
+    /**
+     * Returns the theme default background color, see {@link ThemeSettings#getBackgroundColor()}
+     * and {@link StyleHelper#applyThemeColors(RichTextArea, PreHighlightedDocument)}.
+     */
+    public String getBackgroundColor() {
+        return backgroundColor;
+    }
+
+    /**
+     * Returns the theme default foreground color, see {@link ThemeSettings#getForegroundColor()}.
+     */
+    public String getForegroundColor() {
+        return foregroundColor;
+    }
+
+    /**
+     * Returns the number of lines.
+     */
+    public int getLineCount() {
+        return tokens.length;
+    }
+
+    /**
+     * Restores the styled tokens of the given lines.
+     *
+     * @return the tokens of each line, or {@code null} if the lines are not the ones
+     * the document was highlighted from
+     */
+    public @Nullable List<List<StyledToken>> getLines(String[] lines) {
+        Objects.requireNonNull(lines, "Lines must not be null");
+        if (lines.length != tokens.length || hash(lines) != contentHash) {
+            return null;
+        }
+
+        var result = new ArrayList<List<StyledToken>>(lines.length);
+        for (int i = 0; i < lines.length; i++) {
+            var line = getLine(i, lines[i]);
+            if (line == null) {
+                return null;
+            }
+            result.add(line);
+        }
+        return result;
+    }
+
+    /**
+     * Restores the styled tokens of the given text, see {@link #getLines(String[])}.
+     */
+    public @Nullable List<List<StyledToken>> getLines(String text) {
+        return getLines(text.split(StyledModel.LINE_SPLIT_PATTERN));
+    }
+
+    //*************************************************************************
+
+    private @Nullable List<StyledToken> getLine(int index, String text) {
+        var data = tokens[index];
+        var result = new StyledToken[data.length / 2];
+        int offset = 0;
+        for (int i = 0; i < result.length; i++) {
+            int length = data[2 * i];
+            int style = data[2 * i + 1];
+            if (offset + length > text.length()) {
+                return null;
+            }
+            result[i] = new StyledToken(text.substring(offset, offset + length), style > 0 ? styles[style - 1] : null);
+            offset += length;
+        }
+        return offset == text.length() ? List.of(result) : null;
+    }
+
+    private static int hash(String[] lines) {
+        var crc = new CRC32C();
+        for (var line : lines) {
+            crc.update(line.getBytes(StandardCharsets.UTF_8));
+            crc.update('\n');
+        }
+        return (int) crc.getValue();
+    }
+
+    private static int readCount(DataInputStream in) throws IOException {
+        int count = readVarInt(in);
+        if (count > MAX_COUNT) {
+            throw new IOException("Invalid count: " + count);
+        }
+        return count;
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    throw new IOException("Invalid value: " + value);
+                }
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+}
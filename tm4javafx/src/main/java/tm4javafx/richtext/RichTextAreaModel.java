@@ -2,9 +2,13 @@
 
 package tm4javafx.richtext;
 
+import java.lang.ref.SoftReference;
+import java.util.List;
 import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleObjectProperty;
+import javafx.util.Subscription;
 import jfx.incubator.scene.control.richtext.RichTextArea;
+import jfx.incubator.scene.control.richtext.TextPos;
 import jfx.incubator.scene.control.richtext.model.SimpleViewOnlyStyledModel;
 import jfx.incubator.scene.control.richtext.model.StyledTextModel;
 import org.jspecify.annotations.Nullable;
@@ -16,8 +20,17 @@ import org.jspecify.annotations.Nullable;
  * <p>
  * This model uses JavaFX {@link SimpleViewOnlyStyledModel}, making the resulting text area
  * read-only as well.
+ * <p>
+ * When a {@link HighlightMemoryManager} is set, the styled content of a hidden text area
+ * may be evicted from memory. It's restored or rebuilt once the text area becomes visible.
  */
-public class RichTextAreaModel extends RichTextModel {
+public class RichTextAreaModel extends RichTextModel implements HighlightMemoryManager.Evictable {
+
+    protected @Nullable HighlightMemoryManager memoryManager;
+    protected @Nullable SoftReference<StyledTextModel> evictedModel;
+    protected Subscription richTextAreaSubscription = Subscription.EMPTY;
+    protected long retainedSize;
+    protected @Nullable ThemeStylesheet stylesheet;
 
     /**
      * Creates a new {@code RichTextArea} model.
@@ -28,6 +41,7 @@ public class RichTextAreaModel extends RichTextModel {
 
     protected void init() {
         textProperty().subscribe(this::onTextContentChanged);
+        highlightingPolicyProperty().subscribe(this::onTextContentChanged);
         richTextAreaProperty().subscribe(this::onRichTextAreaChanged);
     }
 
@@ -66,20 +80,85 @@ public class RichTextAreaModel extends RichTextModel {
         richTextAreaProperty().set(richTextArea);
     }
 
+    /**
+     * Returns the memory manager that limits the memory retained by the
+     * styled content, or {@code null} if not set.
+     */
+    public @Nullable HighlightMemoryManager getMemoryManager() {
+        return memoryManager;
+    }
+
+    /**
+     * Sets the memory manager that limits the memory retained by the styled content.
+     */
+    public void setMemoryManager(@Nullable HighlightMemoryManager memoryManager) {
+        if (this.memoryManager != null) {
+            this.memoryManager.release(this);
+        }
+        this.memoryManager = memoryManager;
+        if (memoryManager != null) {
+            memoryManager.update(this);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getRetainedSize() {
+        return styledTextModel.get() != null ? retainedSize : 0;
+    }
+
+    /**
+     * Returns {@code true} if the associated {@code RichTextArea} is not displayed.
+     */
+    @Override
+    public boolean canEvict() {
+        var area = getRichTextArea();
+        return area == null || area.getScene() == null || !area.isVisible();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void evict() {
+        var model = styledTextModel.get();
+        if (model != null) {
+            evictedModel = new SoftReference<>(model);
+            styledTextModel.set(null);
+        }
+    }
+
     //*************************************************************************
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
     protected void onTextContentChanged() {
-        var content = text.get();
+        var content = getContent();
         var provider = styleProvider.get();
 
+        evictedModel = null;
         if (content == null || provider == null) {
+            appendable = false;
             styledTextModel.set(null);
             return;
         }
 
-        var model = new SimpleViewOnlyStyledModel();
-        for (var line : content.split(LINE_SPLIT_PATTERN)) {
-            var tokens = provider.tokenize(line);
+        String[] lines = content.split(LINE_SPLIT_PATTERN);
+        var mode = updateHighlightingMode(content.length(), lines.length);
+
+        var model = new AppendableStyledModel();
+        stylesheet = provider.isStyleClassesEnabled() ? provider.getStylesheet() : null;
+        long size = 0;
+        var cached = tokenizeCached(provider, lines, mode);
+        provider.setState(null);
+        for (int i = 0; i < lines.length; i++) {
+            var line = lines[i];
+            var tokens = cached != null ? cached.get(i) : provider.tokenize(line, mode);
+            size += StyleHelper.estimateRetainedSize(line, tokens.size());
 
             for (var token : tokens) {
                 applyStyles(model, token);
@@ -88,15 +167,82 @@ public class RichTextAreaModel extends RichTextModel {
             model.nl();
         }
 
+        retainedSize = size;
+        updateAppendState(content, provider.getState(), cached == null);
         styledTextModel.set(model);
+
+        if (memoryManager != null) {
+            memoryManager.update(this);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void onTextAppended(StyleProvider provider, List<String> lines) {
+        if (!(styledTextModel.get() instanceof AppendableStyledModel model)) {
+            // evicted, the stale model can't be restored anymore
+            evictedModel = null;
+            return;
+        }
+
+        var mode = getHighlightingMode();
+        var start = model.getDocumentEnd();
+        long size = 0;
+        for (var line : lines) {
+            var tokens = provider.tokenize(line, mode);
+            size += StyleHelper.estimateRetainedSize(line, tokens.size());
+
+            for (var token : tokens) {
+                applyStyles(model, token);
+            }
+
+            model.nl();
+        }
+
+        retainedSize += size;
+        model.fireTextAppended(start, lines.getFirst().length(), lines.size());
+
+        if (memoryManager != null) {
+            memoryManager.update(this);
+        }
     }
 
     protected void onRichTextAreaChanged(@Nullable RichTextArea old, @Nullable RichTextArea val) {
+        richTextAreaSubscription.unsubscribe();
+        richTextAreaSubscription = Subscription.EMPTY;
+
         if (old != null) {
             old.modelProperty().unbind();
         }
         if (val != null) {
             val.modelProperty().bind(styledTextModel);
+            richTextAreaSubscription = Subscription.combine(
+                val.visibleProperty().subscribe(this::onRichTextAreaShown),
+                val.sceneProperty().subscribe(this::onRichTextAreaShown)
+            );
+        }
+    }
+
+    protected void onRichTextAreaShown() {
+        if (canEvict()) {
+            return; // still hidden
+        }
+
+        if (styledTextModel.get() == null && text.get() != null) {
+            var model = evictedModel != null ? evictedModel.get() : null;
+            if (model != null) {
+                evictedModel = null;
+                styledTextModel.set(model);
+            } else {
+                onTextContentChanged();
+                return;
+            }
+        }
+
+        if (memoryManager != null) {
+            memoryManager.touch(this);
         }
     }
 
@@ -106,6 +252,28 @@ public class RichTextAreaModel extends RichTextModel {
             return;
         }
 
+        var styleClasses = stylesheet != null ? stylesheet.getStyleClasses(token.style()) : null;
+        if (styleClasses != null) {
+            model.addWithStyleNames(token.text(), styleClasses);
+            return;
+        }
+
         model.addSegment(token.text(), token.style());
     }
+
+    //*************************************************************************
+
+    /**
+     * The view-only model that notifies the rich text area about the appended lines.
+     */
+    protected static class AppendableStyledModel extends SimpleViewOnlyStyledModel {
+
+        /**
+         * Notifies the listeners that the given number of lines have been added
+         * at the given position, which was the end of the document.
+         */
+        protected void fireTextAppended(TextPos start, int charsTop, int linesAdded) {
+            fireChangeEvent(start, start, charsTop, linesAdded, 0);
+        }
+    }
 }
@@ -2,11 +2,21 @@
 
 package tm4javafx.richtext;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import javafx.beans.InvalidationListener;
 import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.ReadOnlyObjectProperty;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.beans.property.ReadOnlyStringProperty;
+import javafx.beans.property.ReadOnlyStringPropertyBase;
 import javafx.beans.property.SimpleObjectProperty;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
 import org.jspecify.annotations.Nullable;
+import tm4java.grammar.IStateStack;
 
 /**
  * A base text-associated model template for rich text controls powered
@@ -39,11 +49,17 @@ public abstract class RichTextModel implements StyledModel {
         styleProviderProperty().set(styleProvider);
     }
 
+    protected RichTextModel() {
+        // the appended text follows the text it has been appended to
+        text.addListener((InvalidationListener) obs -> appendedText.clear());
+    }
+
     /**
      * Contains the plain, unstyled text associated with the styled model.
      * <p>
      * Changing the text causes model changes and updates its state, which
-     * is reflected in the bound UI control.
+     * is reflected in the bound UI control. The text added by {@link #appendText(String)}
+     * is not added to this property, see {@link #appendedTextProperty()}.
      */
     public final StringProperty textProperty() {
         return text;
@@ -59,9 +75,344 @@ public abstract class RichTextModel implements StyledModel {
     }
 
     /**
-     * Sere {@link #textProperty()}.
+     * Sere {@link #textProperty()}. Unlike setting the property value, this method
+     * always highlights the text again, even if it's equal to the current one.
      */
     public void setText(String text) {
+        if (!textProperty().isBound() && Objects.equals(getText(), text)) {
+            // equal values don't notify the listeners
+            appendedText.clear();
+            onTextContentChanged();
+            return;
+        }
         textProperty().set(text);
     }
+
+    /**
+     * Contains the text added by {@link #appendText(String)} since the text has been set.
+     * The associated rich text control displays the text followed by the appended text.
+     * <p>
+     * The value is only created when requested, so listening to invalidation, rather than
+     * value changes, keeps the cost of each append independent of the appended text size.
+     */
+    public final ReadOnlyStringProperty appendedTextProperty() {
+        return appendedText;
+    }
+
+    protected final AppendedTextProperty appendedText = new AppendedTextProperty();
+
+    /**
+     * Returns the text added by {@link #appendText(String)} since the text has been set.
+     */
+    public final String getAppendedText() {
+        return appendedText.get();
+    }
+
+    /**
+     * Appends the given text, e.g. the next lines of a tailed log.
+     * <p>
+     * Unlike {@link #setText(String)}, only the appended lines are tokenized, continuing
+     * from the grammar state at the end of the current text, and only the new content is
+     * added to the associated rich text control, so the cost doesn't depend on the size
+     * of the current text. The highlighting mode selected for the current text is kept.
+     * <p>
+     * An incomplete trailing line is kept until its line break is appended, so the text
+     * doesn't have to arrive on line boundaries. This requires the current text to end
+     * with a line break. Otherwise, or if the state at the end of the text is unknown,
+     * the whole text is set and highlighted again.
+     */
+    public void appendText(String text) {
+        if (text.isEmpty()) {
+            return;
+        }
+
+        var provider = getStyleProvider();
+        if (provider == null || !canAppend()) {
+            setText(Objects.requireNonNullElse(getContent(), "") + text);
+            return;
+        }
+
+        appendedText.append(text);
+
+        var lines = takeCompleteLines(text);
+        if (!lines.isEmpty()) {
+            provider.setState(appendState);
+            onTextAppended(provider, lines);
+            appendState = provider.getState();
+        }
+    }
+
+    /**
+     * Contains the policy that selects the {@link HighlightingMode} depending on
+     * the text size.
+     * <p>
+     * Note that these models render the whole text at once, so the
+     * {@link HighlightingMode#VIEWPORT} mode is replaced with {@link HighlightingMode#FALLBACK}.
+     */
+    public ObjectProperty<HighlightingPolicy> highlightingPolicyProperty() {
+        return highlightingPolicy;
+    }
+
+    protected final ObjectProperty<HighlightingPolicy> highlightingPolicy =
+        new SimpleObjectProperty<>(HighlightingPolicy.DEFAULT);
+
+    /**
+     * Returns the policy that selects the {@link HighlightingMode}.
+     */
+    public HighlightingPolicy getHighlightingPolicy() {
+        return Objects.requireNonNullElse(highlightingPolicy.get(), HighlightingPolicy.DEFAULT);
+    }
+
+    /**
+     * Sets the policy that selects the {@link HighlightingMode}.
+     */
+    public void setHighlightingPolicy(HighlightingPolicy policy) {
+        highlightingPolicyProperty().set(policy);
+    }
+
+    /**
+     * Contains the highlighting mode selected for the current text. Listen to
+     * this property to notify the user when highlighting has been degraded.
+     */
+    public ReadOnlyObjectProperty<HighlightingMode> highlightingModeProperty() {
+        return highlightingMode.getReadOnlyProperty();
+    }
+
+    protected final ReadOnlyObjectWrapper<HighlightingMode> highlightingMode =
+        new ReadOnlyObjectWrapper<>(HighlightingMode.FULL);
+
+    /**
+     * Returns the highlighting mode selected for the current text.
+     */
+    public HighlightingMode getHighlightingMode() {
+        return highlightingMode.get();
+    }
+
+    protected @Nullable HighlightDiskCache diskCache;
+    protected @Nullable String documentId;
+
+    /**
+     * Returns the on-disk cache of highlighted documents, or {@code null} if not set.
+     */
+    public @Nullable HighlightDiskCache getDiskCache() {
+        return diskCache;
+    }
+
+    /**
+     * Sets the on-disk cache of highlighted documents. The cache is only used when
+     * the {@link #setDocumentId(String) document id} is set as well, and the text
+     * is highlighted in the {@link HighlightingMode#FULL} mode. The new cache is
+     * applied on the next text change.
+     */
+    public void setDiskCache(@Nullable HighlightDiskCache diskCache) {
+        this.diskCache = diskCache;
+    }
+
+    /**
+     * Returns the id of the document in the on-disk cache, or {@code null} if not set.
+     */
+    public @Nullable String getDocumentId() {
+        return documentId;
+    }
+
+    /**
+     * Sets the id of the document in the on-disk cache, e.g. the file path.
+     * See {@link #setDiskCache(HighlightDiskCache)}.
+     */
+    public void setDocumentId(@Nullable String documentId) {
+        this.documentId = documentId;
+    }
+
+    protected @Nullable PreHighlightedDocument preHighlightedDocument;
+
+    /**
+     * Returns the pre-highlighted document, or {@code null} if not set.
+     */
+    public @Nullable PreHighlightedDocument getPreHighlightedDocument() {
+        return preHighlightedDocument;
+    }
+
+    /**
+     * Sets the document highlighted ahead of time. If the text matches the document,
+     * its tokens are used regardless of the highlighting mode, and the style provider
+     * doesn't need the grammar or the theme. Otherwise, the text is tokenized as usual,
+     * or displayed as plain text if the style provider has no grammar. The new document
+     * is applied on the next text change.
+     */
+    public void setPreHighlightedDocument(@Nullable PreHighlightedDocument preHighlightedDocument) {
+        this.preHighlightedDocument = preHighlightedDocument;
+    }
+
+    //*************************************************************************
+
+    // append state
+    protected @Nullable IStateStack appendState;
+    protected boolean appendable;
+    protected final StringBuilder partialLine = new StringBuilder();
+    protected boolean skipLineFeed;
+
+    /**
+     * Highlights the whole text, followed by the appended text, and updates
+     * the associated rich text control.
+     */
+    protected abstract void onTextContentChanged();
+
+    /**
+     * Adds the given complete lines to the associated rich text control. The style provider
+     * state is set to the state at the end of the current text.
+     */
+    protected abstract void onTextAppended(StyleProvider provider, List<String> lines);
+
+    /**
+     * Stores the grammar state at the end of the rebuilt text, so that the following
+     * {@link #appendText(String)} calls can continue from it.
+     *
+     * @param content the highlighted text
+     * @param state   the grammar state at the end of the text
+     * @param known   whether the state is known, e.g. it's not when the text has been
+     *                restored from the cache without tokenization
+     */
+    protected void updateAppendState(String content, @Nullable IStateStack state, boolean known) {
+        char last = content.isEmpty() ? 0 : content.charAt(content.length() - 1);
+        appendState = state;
+        appendable = known && (last == '\n' || last == '\r');
+        partialLine.setLength(0);
+        skipLineFeed = last == '\r';
+    }
+
+    /**
+     * Adds the given text to the incomplete trailing line, and returns the lines
+     * completed by it, without the line breaks.
+     */
+    protected List<String> takeCompleteLines(String text) {
+        if (skipLineFeed && text.charAt(0) == '\n') {
+            text = text.substring(1); // the second half of CRLF
+        }
+        skipLineFeed = false;
+
+        partialLine.append(text);
+        if (partialLine.isEmpty()) {
+            return List.of();
+        }
+
+        char last = partialLine.charAt(partialLine.length() - 1);
+        if (last == '\r') {
+            partialLine.setLength(partialLine.length() - 1);
+            skipLineFeed = true;
+        }
+
+        var lines = new ArrayList<>(Arrays.asList(partialLine.toString().split(LINE_SPLIT_PATTERN, -1)));
+        partialLine.setLength(0);
+        if (last != '\r') {
+            partialLine.append(lines.removeLast());
+        }
+        return lines;
+    }
+
+    /**
+     * Returns whether the text can be appended without highlighting the whole text again.
+     */
+    protected boolean canAppend() {
+        return appendable && !text.isBound();
+    }
+
+    /**
+     * Returns the text followed by the appended text, or {@code null} if the text is not set.
+     */
+    protected @Nullable String getContent() {
+        var content = text.get();
+        if (content == null || appendedText.isEmpty()) {
+            return content;
+        }
+        return content + appendedText.get();
+    }
+
+    /**
+     * Returns the styled tokens of the given lines from the pre-highlighted document or
+     * the on-disk cache, or {@code null} if neither is used, in which case the lines should
+     * be tokenized as usual.
+     */
+    protected @Nullable List<List<StyledToken>> tokenizeCached(StyleProvider provider, String[] lines,
+                                                              HighlightingMode mode) {
+        var document = preHighlightedDocument;
+        var restored = document != null ? document.getLines(lines) : null;
+        if (restored != null) {
+            return restored;
+        }
+
+        if (document != null && provider.getGrammar() == null) {
+            // the resource has changed since it was highlighted, and can't be tokenized
+            var plain = new ArrayList<List<StyledToken>>(lines.length);
+            for (var line : lines) {
+                plain.add(List.of(new StyledToken(line, null)));
+            }
+            return plain;
+        }
+
+        var cache = diskCache;
+        var id = documentId;
+        if (cache == null || id == null || mode != HighlightingMode.FULL) {
+            return null;
+        }
+
+        return cache.tokenize(provider, id, lines);
+    }
+
+    /**
+     * Selects and updates the highlighting mode for the text of the given size.
+     */
+    protected HighlightingMode updateHighlightingMode(long length, int lineCount) {
+        var mode = getHighlightingPolicy().select(length, lineCount);
+        if (mode == HighlightingMode.VIEWPORT) {
+            mode = HighlightingMode.FALLBACK;
+        }
+
+        highlightingMode.set(mode);
+        return mode;
+    }
+
+    /**
+     * The appended text, which is only turned into a string when requested.
+     */
+    protected class AppendedTextProperty extends ReadOnlyStringPropertyBase {
+
+        protected final StringBuilder value = new StringBuilder();
+        protected @Nullable String string;
+
+        @Override
+        public String get() {
+            if (string == null) {
+                string = value.toString();
+            }
+            return string;
+        }
+
+        @Override
+        public Object getBean() {
+            return RichTextModel.this;
+        }
+
+        @Override
+        public String getName() {
+            return "appendedText";
+        }
+
+        protected boolean isEmpty() {
+            return value.isEmpty();
+        }
+
+        protected void append(String text) {
+            value.append(text);
+            string = null;
+            fireValueChangedEvent();
+        }
+
+        protected void clear() {
+            if (!value.isEmpty()) {
+                value.setLength(0);
+                string = null;
+                fireValueChangedEvent();
+            }
+        }
+    }
 }
@@ -0,0 +1,125 @@
+/* SPDX-License-Identifier: MIT */
+
+package tm4javafx.richtext;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jspecify.annotations.Nullable;
+import tm4java.theme.ITheme;
+import tm4java.theme.StyleAttributes;
+
+/**
+ * Resolves token scope stacks into the theme style attributes using a trie
+ * over the scope stack.
+ * <p>
+ * A token style is the style of the most specific scope in its scope stack that the
+ * theme has a style for. Resolving it directly takes a {@link ITheme#match(String)}
+ * call per scope. However, the scope stacks of different tokens share long prefixes
+ * (e.g. "source.java meta.class.java meta.method.java ..."), so this class stores them
+ * in a trie, where each node holds the resolved style of the stack ending at that node.
+ * The style of a node only depends on its parent and the node scope, so each distinct
+ * scope stack prefix is matched against the theme exactly once, and resolving a whole
+ * scope stack is a single traversal with no theme calls.
+ * <p>
+ * The results are the same as of matching the scopes from the most specific to the least
+ * specific one. The matcher is thread-safe, bounded, and must only be used with a single
+ * theme, see {@link StyleCache#getScopeMatcher()}.
+ */
+public class ScopeMatcher {
+
+    public static final int DEFAULT_MAX_NODES = 65_536;
+
+    protected static final class Node {
+
+        final @Nullable StyleAttributes style;
+        final ConcurrentHashMap<String, Node> children = new ConcurrentHashMap<>(4);
+
+        Node(@Nullable StyleAttributes style) {
+            this.style = style;
+        }
+    }
+
+    protected final Node root = new Node(null);
+    protected final AtomicInteger nodeCount = new AtomicInteger();
+    protected final int maxNodes;
+
+    /**
+     * Creates a new matcher.
+     *
+     * @param maxNodes the maximum number of trie nodes, once reached,
+     *                 unknown scope stacks are resolved directly
+     */
+    public ScopeMatcher(int maxNodes) {
+        if (maxNodes <= 0) {
+            throw new IllegalArgumentException("Max nodes must be positive");
+        }
+        this.maxNodes = maxNodes;
+    }
+
+    /**
+     * Returns the style attributes of the most specific scope of the stack that the
+     * theme has a style for, or {@code null} if there's none.
+     *
+     * @param theme      the theme, it must be the same for all calls
+     * @param scopeStack the token scopes, from the least specific to the most specific one
+     */
+    public @Nullable StyleAttributes match(ITheme theme, List<String> scopeStack) {
+        var node = root;
+        for (int i = 0; i < scopeStack.size(); i++) {
+            var scope = scopeStack.get(i);
+            var child = node.children.get(scope);
+
+            if (child == null) {
+                if (nodeCount.get() >= maxNodes) {
+                    return matchDirectly(theme, scopeStack);
+                }
+
+                var attrs = theme.match(scope);
+                child = new Node(isStyled(attrs) ? attrs : node.style);
+
+                var existing = node.children.putIfAbsent(scope, child);
+                if (existing != null) {
+                    child = existing;
+                } else {
+                    nodeCount.incrementAndGet();
+                }
+            }
+
+            node = child;
+        }
+
+        return node.style;
+    }
+
+    /**
+     * Returns the number of trie nodes.
+     */
+    public int size() {
+        return nodeCount.get();
+    }
+
+    /**
+     * Removes all trie nodes.
+     */
+    public void clear() {
+        root.children.clear();
+        nodeCount.set(0);
+    }
+
+    //*************************************************************************
+
+    protected @Nullable StyleAttributes matchDirectly(ITheme theme, List<String> scopeStack) {
+        for (int i = scopeStack.size() - 1; i >= 0; i--) { // most specific scope is the last one
+            var attrs = theme.match(scopeStack.get(i));
+            if (isStyled(attrs)) {
+                return attrs;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isStyled(@Nullable StyleAttributes attrs) {
+        return attrs != null && !StyleAttributes.NO_STYLE.equals(attrs);
+    }
+}
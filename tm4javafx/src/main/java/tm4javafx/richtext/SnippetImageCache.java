@@ -0,0 +1,125 @@
+/* SPDX-License-Identifier: MIT */
+
+package tm4javafx.richtext;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javafx.scene.image.Image;
+import javafx.scene.text.Font;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * A bounded cache of the rendered snippet images, see {@link SnippetView}.
+ * <p>
+ * The image of a snippet only depends on its text, grammar, theme, font, wrapping
+ * width and the output scale, so identical snippets shown in different places are
+ * rendered only once. The cache is bounded by the total number of pixels and evicts
+ * the least recently used images. It's thread-safe.
+ */
+public class SnippetImageCache {
+
+    public static final long DEFAULT_MAX_PIXELS = 64L * 1024 * 1024;
+
+    private static final SnippetImageCache DEFAULT = new SnippetImageCache(DEFAULT_MAX_PIXELS);
+
+    /**
+     * The cache key.
+     *
+     * @param text         the snippet text
+     * @param grammarScope the grammar scope name
+     * @param themeCss     the compiled theme stylesheet, which identifies the theme by its content
+     * @param font         the font
+     * @param width        the wrapping width, or zero if the text is not wrapped
+     * @param scale        the output scale
+     */
+    public record Key(String text, @Nullable String grammarScope, @Nullable String themeCss,
+                      Font font, double width, double scale) {
+    }
+
+    protected final LinkedHashMap<Key, Image> cache = new LinkedHashMap<>(16, 0.75f, true);
+    protected long maxPixels;
+    protected long pixels;
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maxPixels the maximum total number of pixels of the cached images
+     */
+    public SnippetImageCache(long maxPixels) {
+        setMaxPixels(maxPixels);
+    }
+
+    /**
+     * Returns the shared, process-wide cache.
+     */
+    public static SnippetImageCache getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns the maximum total number of pixels of the cached images.
+     */
+    public synchronized long getMaxPixels() {
+        return maxPixels;
+    }
+
+    /**
+     * Sets the maximum total number of pixels of the cached images
+     * and evicts the images that don't fit.
+     */
+    public synchronized void setMaxPixels(long maxPixels) {
+        if (maxPixels <= 0) {
+            throw new IllegalArgumentException("Max pixels must be positive");
+        }
+        this.maxPixels = maxPixels;
+        trim();
+    }
+
+    /**
+     * Returns the cached image, or {@code null} if there's none.
+     */
+    public synchronized @Nullable Image get(Key key) {
+        return cache.get(key);
+    }
+
+    /**
+     * Caches the image.
+     */
+    public synchronized void put(Key key, Image image) {
+        var old = cache.put(key, image);
+        if (old != null) {
+            pixels -= getPixels(old);
+        }
+        pixels += getPixels(image);
+        trim();
+    }
+
+    /**
+     * Returns the number of cached images.
+     */
+    public synchronized int size() {
+        return cache.size();
+    }
+
+    /**
+     * Removes all cached images.
+     */
+    public synchronized void clear() {
+        cache.clear();
+        pixels = 0;
+    }
+
+    //*************************************************************************
+
+    protected void trim() {
+        var it = cache.values().iterator();
+        while (pixels > maxPixels && it.hasNext()) {
+            pixels -= getPixels(it.next());
+            it.remove();
+        }
+    }
+
+    private static long getPixels(Image image) {
+        return (long) image.getWidth() * (long) image.getHeight();
+    }
+}
@@ -0,0 +1,331 @@
+/* SPDX-License-Identifier: MIT */
+
+package tm4javafx.richtext;
+
+import javafx.beans.property.DoubleProperty;
+import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.SimpleDoubleProperty;
+import javafx.beans.property.SimpleObjectProperty;
+import javafx.beans.property.SimpleStringProperty;
+import javafx.beans.property.StringProperty;
+import javafx.geometry.Pos;
+import javafx.scene.Group;
+import javafx.scene.Scene;
+import javafx.scene.SnapshotParameters;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.scene.layout.StackPane;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+import javafx.scene.text.TextFlow;
+import javafx.scene.transform.Transform;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * A read-only highlighted snippet that is displayed as a cached image.
+ * <p>
+ * A live {@code TextFlow} built by {@link TextFlowModel} contains a {@code Text} node
+ * per token, which makes the scene graph and CSS passes expensive when many snippets
+ * are shown at once. This view renders the snippet once into an image, caches it in
+ * the {@link SnippetImageCache}, and displays it with a single {@code ImageView}.
+ * The live {@code TextFlow} is swapped in only while the user interacts with the
+ * snippet, i.e. while it's hovered or focused.
+ * <p>
+ * The changes are coalesced: the snippet is rendered on the next layout pass, and only
+ * once the view has been added to a scene, so configuring several properties in a row
+ * renders it once.
+ * <p>
+ * Like any other node, the view must be used on the JavaFX application thread.
+ */
+public class SnippetView extends StackPane {
+
+    protected final ImageView imageView = new ImageView();
+    protected @Nullable TextFlowModel liveModel;
+    protected @Nullable TextFlow liveTextFlow;
+    protected boolean live;
+    protected boolean dirty = true;
+
+    /**
+     * Creates a new snippet view.
+     */
+    public SnippetView() {
+        getStyleClass().add("snippet-view");
+        setAlignment(Pos.TOP_LEFT);
+        getChildren().add(imageView);
+
+        text.subscribe(this::refresh);
+        styleProvider.subscribe(this::refresh);
+        font.subscribe(this::refresh);
+        wrappingWidth.subscribe(this::refresh);
+        imageCache.subscribe(this::refresh);
+        sceneProperty().subscribe(this::refresh); // the output scale may change
+
+        hoverProperty().subscribe(this::onInteractionChanged);
+        focusedProperty().subscribe(this::onInteractionChanged);
+    }
+
+    //*************************************************************************
+    // Properties
+    //*************************************************************************
+
+    protected final StringProperty text = new SimpleStringProperty(this, "text", "");
+
+    /**
+     * Contains the snippet text.
+     */
+    public StringProperty textProperty() {
+        return text;
+    }
+
+    public String getText() {
+        return text.get();
+    }
+
+    public void setText(String text) {
+        this.text.set(text);
+    }
+
+    // ~
+
+    protected final ObjectProperty<@Nullable StyleProvider> styleProvider =
+        new SimpleObjectProperty<>(this, "styleProvider");
+
+    /**
+     * Contains the style provider used to highlight the snippet.
+     */
+    public ObjectProperty<@Nullable StyleProvider> styleProviderProperty() {
+        return styleProvider;
+    }
+
+    public @Nullable StyleProvider getStyleProvider() {
+        return styleProvider.get();
+    }
+
+    public void setStyleProvider(@Nullable StyleProvider styleProvider) {
+        this.styleProvider.set(styleProvider);
+    }
+
+    // ~
+
+    protected final ObjectProperty<Font> font = new SimpleObjectProperty<>(this, "font", Font.getDefault());
+
+    /**
+     * Contains the snippet font.
+     */
+    public ObjectProperty<Font> fontProperty() {
+        return font;
+    }
+
+    public Font getFont() {
+        var value = font.get();
+        return value != null ? value : Font.getDefault();
+    }
+
+    public void setFont(Font font) {
+        this.font.set(font);
+    }
+
+    // ~
+
+    protected final DoubleProperty wrappingWidth = new SimpleDoubleProperty(this, "wrappingWidth", 0);
+
+    /**
+     * Contains the width the snippet text is wrapped at, or zero if the text is not wrapped.
+     */
+    public DoubleProperty wrappingWidthProperty() {
+        return wrappingWidth;
+    }
+
+    public double getWrappingWidth() {
+        return wrappingWidth.get();
+    }
+
+    public void setWrappingWidth(double wrappingWidth) {
+        this.wrappingWidth.set(wrappingWidth);
+    }
+
+    // ~
+
+    protected final ObjectProperty<SnippetImageCache> imageCache =
+        new SimpleObjectProperty<>(this, "imageCache", SnippetImageCache.getDefault());
+
+    /**
+     * Contains the cache of the rendered snippet images.
+     */
+    public ObjectProperty<SnippetImageCache> imageCacheProperty() {
+        return imageCache;
+    }
+
+    public SnippetImageCache getImageCache() {
+        var value = imageCache.get();
+        return value != null ? value : SnippetImageCache.getDefault();
+    }
+
+    public void setImageCache(SnippetImageCache imageCache) {
+        this.imageCache.set(imageCache);
+    }
+
+    //*************************************************************************
+
+    /**
+     * Re-renders the snippet on the next layout pass, e.g. after the style provider theme
+     * has been changed.
+     */
+    public void refresh() {
+        dirty = true;
+        requestLayout();
+    }
+
+    //*************************************************************************
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void layoutChildren() {
+        if (dirty && getScene() != null) {
+            dirty = false;
+            render();
+        }
+        super.layoutChildren();
+    }
+
+    /**
+     * Renders the snippet into the image view, or updates the live {@code TextFlow}
+     * while the user interacts with the snippet.
+     */
+    protected void render() {
+        var provider = getStyleProvider();
+        var content = getText();
+
+        if (live) {
+            showLive();
+            return;
+        }
+
+        if (provider == null || content == null || content.isEmpty()) {
+            imageView.setImage(null);
+            return;
+        }
+
+        double scale = getOutputScale();
+        var key = createKey(provider, content, scale);
+        var cache = getImageCache();
+
+        var image = cache.get(key);
+        if (image == null) {
+            image = renderSnapshot(provider, content, scale);
+            cache.put(key, image);
+        }
+
+        imageView.setImage(image);
+        imageView.setFitWidth(image.getWidth() / scale);
+        imageView.setFitHeight(image.getHeight() / scale);
+    }
+
+    protected void onInteractionChanged() {
+        boolean interacting = isHover() || isFocused();
+        if (interacting == live) {
+            return;
+        }
+
+        live = interacting;
+        if (live) {
+            showLive();
+        } else {
+            hideLive();
+            refresh();
+        }
+    }
+
+    protected void showLive() {
+        var model = liveModel;
+        var textFlow = liveTextFlow;
+        if (model == null || textFlow == null) {
+            textFlow = new TextFlow();
+            model = new TextFlowModel();
+            model.setTextFlow(textFlow);
+            liveModel = model;
+            liveTextFlow = textFlow;
+        }
+
+        var provider = getStyleProvider();
+        model.setStyleProvider(provider);
+        model.setText(getText());
+        configureTextFlow(textFlow, model, provider);
+
+        getChildren().setAll(textFlow);
+    }
+
+    protected void hideLive() {
+        // drop the live nodes, they're recreated on the next interaction
+        if (liveModel != null) {
+            liveModel.setTextFlow(null);
+        }
+        liveModel = null;
+        liveTextFlow = null;
+        getChildren().setAll(imageView);
+    }
+
+    protected SnippetImageCache.Key createKey(StyleProvider provider, String content, double scale) {
+        var grammar = provider.getGrammar();
+        var stylesheet = provider.getStylesheet();
+        return new SnippetImageCache.Key(
+            content,
+            grammar != null ? grammar.getScopeName() : null,
+            stylesheet != null ? stylesheet.getCss() : null,
+            getFont(),
+            getWrappingWidth(),
+            scale
+        );
+    }
+
+    /**
+     * Renders the snippet into an image using a temporary {@code TextFlow},
+     * which is discarded afterward.
+     */
+    protected Image renderSnapshot(StyleProvider provider, String content, double scale) {
+        var textFlow = new TextFlow();
+        var model = new TextFlowModel();
+        model.setTextFlow(textFlow);
+        model.setStyleProvider(provider);
+        model.setText(content);
+        configureTextFlow(textFlow, model, provider);
+
+        // a temporary scene is required to apply CSS and layout
+        new Scene(new Group(textFlow));
+        textFlow.applyCss();
+        textFlow.layout();
+
+        var params = new SnapshotParameters();
+        params.setFill(Color.TRANSPARENT);
+        if (scale != 1) {
+            params.setTransform(Transform.scale(scale, scale));
+        }
+
+        var image = textFlow.snapshot(params, null);
+        model.setTextFlow(null);
+        return image;
+    }
+
+    protected void configureTextFlow(TextFlow textFlow, TextFlowModel model, @Nullable StyleProvider provider) {
+        var f = getFont();
+        for (var textNode : model.getStyledText()) {
+            StyleHelper.addOrReplaceStyle(textNode, "-fx-font-family", "'" + f.getFamily() + "'");
+            StyleHelper.addOrReplaceStyle(textNode, "-fx-font-size", f.getSize() + "px");
+        }
+
+        double width = getWrappingWidth();
+        textFlow.setPrefWidth(width > 0 ? width : USE_COMPUTED_SIZE);
+
+        if (provider != null) {
+            StyleHelper.applyThemeSettings(textFlow, provider.getThemeSettings());
+        }
+    }
+
+    protected double getOutputScale() {
+        var scene = getScene();
+        var window = scene != null ? scene.getWindow() : null;
+        return window != null ? Math.max(window.getOutputScaleX(), window.getOutputScaleY()) : 1;
+    }
+}
@@ -0,0 +1,265 @@
+/* SPDX-License-Identifier: MIT */
+
+package tm4javafx.richtext;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import org.jspecify.annotations.Nullable;
+import tm4java.grammar.IStateStack;
+
+/**
+ * A bounded store of grammar state checkpoints for large documents.
+ * <p>
+ * Keeping the {@link IStateStack} of every line is expensive for huge files, while
+ * keeping none means the tokenization has to be replayed from the first line. This
+ * store keeps a state every {@link #getInterval()} lines, and every
+ * {@link #getHotInterval()} lines around recently edited or viewed positions
+ * (see {@link #markHot(int)}). When the number of checkpoints exceeds the budget,
+ * the least recently used ones are evicted, dense checkpoints first.
+ * <p>
+ * A checkpoint stored for line {@code N} is the state at the <b>beginning</b> of
+ * that line, i.e. the state returned after tokenizing line {@code N - 1}. The
+ * beginning of the document always has an implicit {@code null} state, so the
+ * {@link #floor(int)} lookup never fails.
+ * <p>
+ * Usage:
+ * <pre>{@code
+ * var checkpoint = store.floor(line);
+ * provider.setState(checkpoint.state());
+ * for (int i = checkpoint.line(); i < line; i++) {
+ *     provider.tokenize(lines[i]);
+ *     store.put(i + 1, provider.getState());
+ * }
+ * }</pre>
+ * <p>
+ * This class is not thread-safe.
+ */
+public class StateCheckpointStore {
+
+    public static final int DEFAULT_INTERVAL = 100;
+    public static final int DEFAULT_HOT_INTERVAL = 10;
+    public static final int DEFAULT_HOT_RADIUS = 500;
+    public static final int DEFAULT_MAX_CHECKPOINTS = 10_000;
+
+    /**
+     * The grammar state at the beginning of the given line.
+     *
+     * @param line  the zero-based line index
+     * @param state the state, {@code null} stands for the initial state
+     */
+    public record Checkpoint(int line, @Nullable IStateStack state) {
+
+        /**
+         * The implicit checkpoint at the beginning of the document.
+         */
+        public static final Checkpoint START = new Checkpoint(0, null);
+    }
+
+    protected final int interval;
+    protected final int hotInterval;
+    protected final int hotRadius;
+    protected int maxCheckpoints;
+
+    // sorted index for the nearest preceding lookups
+    protected final TreeMap<Integer, Checkpoint> checkpoints = new TreeMap<>();
+    // LRU orders, regular grid checkpoints are evicted last
+    protected final LinkedHashMap<Integer, Checkpoint> regularOrder = new LinkedHashMap<>(16, 0.75f, true);
+    protected final LinkedHashMap<Integer, Checkpoint> hotOrder = new LinkedHashMap<>(16, 0.75f, true);
+    protected final int[] hotLines;
+    protected int hotLinesCursor;
+    protected @Nullable StateStackInterner stateInterner;
+
+    /**
+     * Creates a new store with the default settings.
+     */
+    public StateCheckpointStore() {
+        this(DEFAULT_INTERVAL, DEFAULT_HOT_INTERVAL, DEFAULT_HOT_RADIUS, DEFAULT_MAX_CHECKPOINTS);
+    }
+
+    /**
+     * Creates a new store.
+     *
+     * @param interval       the distance in lines between regular checkpoints
+     * @param hotInterval    the distance in lines between checkpoints near hot positions
+     * @param hotRadius      the distance in lines around a hot position where the dense checkpoints are kept
+     * @param maxCheckpoints the maximum number of checkpoints to keep
+     */
+    public StateCheckpointStore(int interval, int hotInterval, int hotRadius, int maxCheckpoints) {
+        if (interval <= 0 || hotInterval <= 0 || hotRadius < 0 || maxCheckpoints <= 0) {
+            throw new IllegalArgumentException("Invalid checkpoint store settings");
+        }
+
+        this.interval = interval;
+        this.hotInterval = Math.min(hotInterval, interval);
+        this.hotRadius = hotRadius;
+        this.maxCheckpoints = maxCheckpoints;
+        this.hotLines = new int[4];
+        Arrays.fill(hotLines, -1);
+    }
+
+    /**
+     * Returns the distance in lines between regular checkpoints.
+     */
+    public int getInterval() {
+        return interval;
+    }
+
+    /**
+     * Returns the distance in lines between checkpoints near hot positions.
+     */
+    public int getHotInterval() {
+        return hotInterval;
+    }
+
+    /**
+     * Returns the maximum number of checkpoints to keep.
+     */
+    public int getMaxCheckpoints() {
+        return maxCheckpoints;
+    }
+
+    /**
+     * Sets the maximum number of checkpoints to keep, evicting the excess if needed.
+     */
+    public void setMaxCheckpoints(int maxCheckpoints) {
+        if (maxCheckpoints <= 0) {
+            throw new IllegalArgumentException("Max checkpoints must be positive");
+        }
+        this.maxCheckpoints = maxCheckpoints;
+        evict();
+    }
+
+    /**
+     * Sets the interner used to deduplicate the stored states. Equal states
+     * stored at different lines will then share a single instance.
+     */
+    public void setStateInterner(@Nullable StateStackInterner stateInterner) {
+        this.stateInterner = stateInterner;
+    }
+
+    /**
+     * Returns the number of currently stored checkpoints.
+     */
+    public int size() {
+        return checkpoints.size();
+    }
+
+    /**
+     * Marks the given line as a recently edited or viewed position, so that
+     * checkpoints around it are kept denser. Only a few latest positions are tracked.
+     */
+    public void markHot(int line) {
+        for (int hotLine : hotLines) {
+            if (hotLine >= 0 && Math.abs(hotLine - line) <= hotRadius / 2) {
+                return; // already covered
+            }
+        }
+        hotLines[hotLinesCursor] = line;
+        hotLinesCursor = (hotLinesCursor + 1) % hotLines.length;
+    }
+
+    /**
+     * Returns whether a checkpoint should be stored for the given line.
+     */
+    public boolean isCheckpointLine(int line) {
+        if (line <= 0) {
+            return false; // implicit
+        }
+        if (line % interval == 0) {
+            return true;
+        }
+        return line % hotInterval == 0 && isHot(line);
+    }
+
+    /**
+     * Stores the state at the beginning of the given line, if the line is a checkpoint line.
+     *
+     * @return {@code true} if the checkpoint was stored
+     */
+    public boolean put(int line, @Nullable IStateStack state) {
+        if (!isCheckpointLine(line)) {
+            return false;
+        }
+
+        var checkpoint = new Checkpoint(line, stateInterner != null ? stateInterner.intern(state) : state);
+        checkpoints.put(line, checkpoint);
+
+        if (line % interval == 0) {
+            regularOrder.put(line, checkpoint);
+        } else {
+            hotOrder.put(line, checkpoint);
+        }
+
+        evict();
+        return true;
+    }
+
+    /**
+     * Returns the nearest checkpoint at or before the given line. If no such checkpoint
+     * exists, {@link Checkpoint#START} is returned.
+     */
+    public Checkpoint floor(int line) {
+        Map.Entry<Integer, Checkpoint> entry = checkpoints.floorEntry(line);
+        if (entry == null) {
+            return Checkpoint.START;
+        }
+
+        // touch to update the LRU order
+        int key = entry.getKey();
+        if (regularOrder.get(key) == null) {
+            hotOrder.get(key);
+        }
+
+        return entry.getValue();
+    }
+
+    /**
+     * Removes all checkpoints at or after the given line. This must be called
+     * when the document changes, because the subsequent states are no longer valid.
+     */
+    public void invalidateFrom(int line) {
+        var tail = checkpoints.tailMap(Math.max(line, 0), true);
+        for (Integer key : tail.keySet()) {
+            regularOrder.remove(key);
+            hotOrder.remove(key);
+        }
+        tail.clear();
+    }
+
+    /**
+     * Removes all checkpoints.
+     */
+    public void clear() {
+        checkpoints.clear();
+        regularOrder.clear();
+        hotOrder.clear();
+        Arrays.fill(hotLines, -1);
+    }
+
+    //*************************************************************************
+
+    protected boolean isHot(int line) {
+        for (int hotLine : hotLines) {
+            if (hotLine >= 0 && Math.abs(hotLine - line) <= hotRadius) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected void evict() {
+        while (checkpoints.size() > maxCheckpoints) {
+            var order = !hotOrder.isEmpty() ? hotOrder : regularOrder;
+            Iterator<Integer> it = order.keySet().iterator();
+            if (!it.hasNext()) {
+                return;
+            }
+            Integer eldest = it.next();
+            it.remove();
+            checkpoints.remove(eldest);
+        }
+    }
+}
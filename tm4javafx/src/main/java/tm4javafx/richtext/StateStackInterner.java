@@ -0,0 +1,87 @@
+/* SPDX-License-Identifier: MIT */
+
+package tm4javafx.richtext;
+
+import java.lang.ref.WeakReference;
+import java.util.WeakHashMap;
+import org.jspecify.annotations.Nullable;
+import tm4java.grammar.IStateStack;
+
+/**
+ * Deduplicates grammar states, so that equal {@link IStateStack} instances share
+ * a single canonical instance.
+ * <p>
+ * In most code, long runs of lines end in identical grammar states (e.g. the top
+ * level of a class body, or inside a block comment). Interning the states that are
+ * retained per line lowers the memory usage and allows comparing the states by
+ * identity, see {@link #isSame(IStateStack, IStateStack)}.
+ * <p>
+ * The pool holds the states weakly, so states that are no longer referenced
+ * elsewhere are garbage collected. Grammar states are immutable, so the same
+ * interner can be shared between several providers and threads.
+ */
+public class StateStackInterner {
+
+    private static final StateStackInterner DEFAULT = new StateStackInterner();
+
+    protected final WeakHashMap<IStateStack, WeakReference<IStateStack>> pool = new WeakHashMap<>();
+
+    /**
+     * Creates a new empty interner.
+     */
+    public StateStackInterner() {
+    }
+
+    /**
+     * Returns the shared, process-wide interner.
+     */
+    public static StateStackInterner getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns the canonical instance that is equal to the given state.
+     * If the pool contains no such state, the given state becomes the canonical one.
+     */
+    public synchronized @Nullable IStateStack intern(@Nullable IStateStack state) {
+        if (state == null) {
+            return null;
+        }
+
+        var ref = pool.get(state);
+        if (ref != null) {
+            var canonical = ref.get();
+            if (canonical != null) {
+                return canonical;
+            }
+        }
+
+        pool.put(state, new WeakReference<>(state));
+        return state;
+    }
+
+    /**
+     * Returns the number of canonical states currently in the pool.
+     */
+    public synchronized int size() {
+        return pool.size();
+    }
+
+    /**
+     * Removes all states from the pool.
+     */
+    public synchronized void clear() {
+        pool.clear();
+    }
+
+    //*************************************************************************
+
+    /**
+     * Compares two interned states by reference. This is an O(1) replacement for
+     * {@link Object#equals(Object)}, but both states must be obtained from the same
+     * interner, otherwise equal states may be reported as different.
+     */
+    public static boolean isSame(@Nullable IStateStack a, @Nullable IStateStack b) {
+        return a == b;
+    }
+}
@@ -2,24 +2,106 @@
 
 package tm4javafx.richtext;
 
+import java.lang.ref.SoftReference;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyObjectProperty;
+import javafx.beans.property.ReadOnlyObjectWrapper;
 import jfx.incubator.scene.control.richtext.CodeArea;
 import jfx.incubator.scene.control.richtext.SyntaxDecorator;
 import jfx.incubator.scene.control.richtext.TextPos;
 import jfx.incubator.scene.control.richtext.model.CodeTextModel;
 import jfx.incubator.scene.control.richtext.model.RichParagraph;
+import jfx.incubator.scene.control.richtext.model.StyleAttributeMap;
 import jfx.incubator.scene.control.richtext.model.StyledTextModel;
 import org.jspecify.annotations.Nullable;
+import tm4java.grammar.IStateStack;
 
 /**
- * A {@link CodeArea} syntax decorator that doesn't store the tokenization
- * state, but recreates styled paragraphs each time model changes.
+ * A {@link CodeArea} syntax decorator that tokenizes the model text and recreates
+ * the styled paragraphs of the changed lines each time the model changes.
+ * <p>
+ * When a {@link HighlightMemoryManager} is set, the styled paragraphs of an inactive
+ * decorator may be evicted from memory. They are restored or rebuilt from the model
+ * on the next access.
+ * <p>
+ * Large documents are highlighted in a cheaper {@link HighlightingMode} selected by
+ * the {@link HighlightingPolicy}. In the {@link HighlightingMode#VIEWPORT} mode, only
+ * the paragraphs requested by the {@code CodeArea} (i.e. the visible ones) are tokenized
+ * on demand, resuming from the nearest grammar state checkpoint.
+ * <p>
+ * The decorator stores the styled tokens of each line, and creates the styled paragraph
+ * only when it's requested by the {@code CodeArea}. At this point, the syntax tokens are
+ * merged with the ranges of the {@link HighlightOverlay}, if any.
+ * <p>
+ * When the {@link #setFrameBudget(Duration) frame budget} is set, the decorator never
+ * tokenizes the whole document at once. The changed lines are shown unstyled immediately,
+ * and then tokenized by an {@code AnimationTimer} on the FX thread within the given time
+ * budget per frame, until the end of the document is reached.
+ * <p>
+ * After an edit, the lines are re-tokenized only until the tokenization converges with
+ * the previous one, and the style change events are fired only for the lines whose
+ * styles have actually changed. The stored grammar states are interned, see
+ * {@link #getStateInterner()}, so the convergence is detected by reference comparison.
+ * <p>
+ * The styled tokens and the end grammar state of each line are stored in
+ * a {@link PersistentLineVector}. Each change produces a new version that shares the
+ * untouched lines with the previous one. Creating a paragraph may still tokenize lines
+ * and update the viewport cache, the checkpoints, the evicted lines and the style provider
+ * state, so the decorator must only be used on the FX thread.
  */
-public class StatelessSyntaxDecorator implements SyntaxDecorator, StyledModel {
+public class StatelessSyntaxDecorator implements SyntaxDecorator, StyledModel, HighlightMemoryManager.Evictable {
 
-    private List<RichParagraph> paragraphs = new ArrayList<>();
+    protected static final int VIEWPORT_CACHE_SIZE = 1_000;
+
+    /**
+     * The styled tokens of a line and the grammar state at the end of the line.
+     */
+    protected record LineTokens(List<StyledToken> tokens, @Nullable IStateStack endState) {
+    }
+
+    // a null element is a line that hasn't been tokenized yet
+    private volatile @Nullable PersistentLineVector<@Nullable LineTokens> lines = PersistentLineVector.empty();
+    private @Nullable SoftReference<PersistentLineVector<@Nullable LineTokens>> evictedLines;
+    private @Nullable Retokenization evictedTask;
+    private long retainedSize;
     private @Nullable StyleProvider styleProvider;
+    private @Nullable HighlightMemoryManager memoryManager;
+    private @Nullable CodeArea codeArea;
+    private @Nullable HighlightOverlay overlay;
+    private @Nullable CodeTextModel model;
+    private final HighlightOverlay.Listener overlayListener = this::onOverlayChanged;
+    private HighlightingPolicy highlightingPolicy = HighlightingPolicy.DEFAULT;
+    private final ReadOnlyObjectWrapper<HighlightingMode> highlightingMode =
+        new ReadOnlyObjectWrapper<>(HighlightingMode.FULL);
+    private @Nullable Duration frameBudget;
+    private @Nullable ProgressiveJob progressiveJob;
+    // the style changes deferred until the model listeners have processed the edit,
+    // shifted by the subsequent edits
+    private final List<int[]> pendingStyleChanges = new ArrayList<>();
+    private boolean styleChangesScheduled;
+    private boolean updatingOverlay;
+
+    // the document length plus one per line, or -1 if unknown
+    private @Nullable CodeTextModel measuredModel;
+    private long documentLength = -1;
+    private int documentLines;
+
+    // viewport mode
+    private final StateCheckpointStore checkpoints = new StateCheckpointStore();
+    private final LinkedHashMap<Integer, List<StyledToken>> viewportCache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, List<StyledToken>> eldest) {
+            return size() > VIEWPORT_CACHE_SIZE;
+        }
+    };
 
     public StatelessSyntaxDecorator() {
         this(null);
@@ -45,15 +127,167 @@ public class StatelessSyntaxDecorator implements SyntaxDecorator, StyledModel {
         this.styleProvider = styleProvider;
     }
 
+    /**
+     * Returns the interner of the grammar states stored per line and per checkpoint,
+     * i.e. the {@link StyleProvider#getStateInterner() style provider interner} if set,
+     * or the {@link StateStackInterner#getDefault() default} one.
+     */
+    public StateStackInterner getStateInterner() {
+        var provider = styleProvider;
+        var interner = provider != null ? provider.getStateInterner() : null;
+        return interner != null ? interner : StateStackInterner.getDefault();
+    }
+
+    /**
+     * Returns the policy that selects the {@link HighlightingMode} depending on
+     * the document size.
+     */
+    public HighlightingPolicy getHighlightingPolicy() {
+        return highlightingPolicy;
+    }
+
+    /**
+     * Sets the policy that selects the {@link HighlightingMode} depending on
+     * the document size. The mode is only selected when the whole document is replaced
+     * or {@link #refresh(StyledTextModel) refreshed}, so it doesn't change while editing.
+     */
+    public void setHighlightingPolicy(@Nullable HighlightingPolicy highlightingPolicy) {
+        this.highlightingPolicy = Objects.requireNonNullElse(highlightingPolicy, HighlightingPolicy.DEFAULT);
+    }
+
+    /**
+     * Contains the highlighting mode selected for the current document. Listen to
+     * this property to notify the user when highlighting has been degraded.
+     */
+    public ReadOnlyObjectProperty<HighlightingMode> highlightingModeProperty() {
+        return highlightingMode.getReadOnlyProperty();
+    }
+
+    /**
+     * Returns the highlighting mode selected for the current document.
+     */
+    public HighlightingMode getHighlightingMode() {
+        return highlightingMode.get();
+    }
+
+    /**
+     * Returns the time budget per frame for the progressive highlighting, or {@code null}
+     * if the document is highlighted at once.
+     */
+    public @Nullable Duration getFrameBudget() {
+        return frameBudget;
+    }
+
+    /**
+     * Sets the time budget per frame for the progressive highlighting, e.g. 4 ms. When set,
+     * the text appears unstyled immediately after a change, and the styles are applied
+     * progressively without blocking the FX thread for longer than the budget. The
+     * {@code null} value disables progressive highlighting.
+     */
+    public void setFrameBudget(@Nullable Duration frameBudget) {
+        if (frameBudget != null && (frameBudget.isNegative() || frameBudget.isZero())) {
+            throw new IllegalArgumentException("Frame budget must be positive");
+        }
+        this.frameBudget = frameBudget;
+    }
+
+    /**
+     * Returns the overlay highlighted on top of the syntax styles, or {@code null} if not set.
+     */
+    public @Nullable HighlightOverlay getOverlay() {
+        return overlay;
+    }
+
+    /**
+     * Sets the overlay highlighted on top of the syntax styles. Changing the overlay
+     * ranges doesn't cause re-tokenization; only the affected paragraphs are
+     * re-requested by the {@code CodeArea}.
+     * <p>
+     * The decorator keeps the overlay ranges in sync with the document edits, see
+     * {@link HighlightOverlay#handleChange(TextPos, TextPos, int, int, int)}.
+     */
+    public void setOverlay(@Nullable HighlightOverlay overlay) {
+        if (this.overlay == overlay) {
+            return;
+        }
+
+        if (this.overlay != null) {
+            this.overlay.removeListener(overlayListener);
+        }
+        this.overlay = overlay;
+        if (overlay != null) {
+            overlay.addListener(overlayListener);
+        }
+
+        if (model != null && model.size() > 0) {
+            model.fireStyleChangeEvent(TextPos.ZERO, model.getDocumentEnd());
+        }
+    }
+
+    /**
+     * Returns the memory manager that limits the memory retained by the
+     * styled paragraphs, or {@code null} if not set.
+     */
+    public @Nullable HighlightMemoryManager getMemoryManager() {
+        return memoryManager;
+    }
+
+    /**
+     * Sets the memory manager that limits the memory retained by the styled paragraphs.
+     * Set the {@link #setCodeArea(CodeArea) code area} as well, so that the styled
+     * paragraphs of a visible document are never evicted.
+     */
+    public void setMemoryManager(@Nullable HighlightMemoryManager memoryManager) {
+        if (this.memoryManager != null) {
+            this.memoryManager.release(this);
+        }
+        this.memoryManager = memoryManager;
+        if (memoryManager != null) {
+            memoryManager.update(this);
+        }
+    }
+
+    /**
+     * Returns the {@code CodeArea} the decorator is used by, or {@code null} if not set.
+     */
+    public @Nullable CodeArea getCodeArea() {
+        return codeArea;
+    }
+
+    /**
+     * Sets the {@code CodeArea} the decorator is used by. The memory manager only
+     * evicts the styled paragraphs when the code area is not displayed.
+     */
+    public void setCodeArea(@Nullable CodeArea codeArea) {
+        this.codeArea = codeArea;
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public RichParagraph createRichParagraph(CodeTextModel model, int index) {
-        if (paragraphs.isEmpty() || index >= paragraphs.size()) {
+        this.model = model;
+
+        if (getHighlightingMode() == HighlightingMode.VIEWPORT) {
+            return buildParagraph(index, getViewportTokens(model, index));
+        }
+
+        var lines = getLines(model);
+        if (lines.isEmpty() || index >= lines.size()) {
             return RichParagraph.builder().build();
         }
-        return paragraphs.get(index);
+
+        var line = lines.get(index);
+        if (line == null) {
+            // not tokenized yet, see progressive highlighting
+            var provider = styleProvider;
+            var text = model.getPlainText(index);
+            return buildParagraph(index, provider != null
+                ? provider.tokenize(text, HighlightingMode.PLAIN)
+                : List.of(new StyledToken(text, null)));
+        }
+        return buildParagraph(index, line.tokens());
     }
 
     /**
@@ -62,45 +296,575 @@ public class StatelessSyntaxDecorator implements SyntaxDecorator, StyledModel {
     @Override
     public void handleChange(CodeTextModel model, TextPos start,
                              TextPos end, int charsTop, int linesAdded, int charsBottom) {
-        if (styleProvider == null) {
-            paragraphs = List.of();
+        // the mode is only selected when the whole document changes, so that it
+        // doesn't change while editing, and the edits don't have to count the text
+        boolean replaced = model != measuredModel
+            || (start.index() == 0 && start.offset() == 0 && end.index() >= documentLines - 1);
+        this.model = model;
+
+        if (replaced) {
+            pendingStyleChanges.clear();
+        } else {
+            shiftPendingStyleChanges(start.index(), end.index(), linesAdded);
+        }
+
+        var overlay = this.overlay;
+        if (overlay != null) {
+            // the lines of the removed ranges are restyled with the deferred style changes
+            updatingOverlay = true;
+            try {
+                overlay.handleChange(start, end, charsTop, linesAdded, charsBottom);
+            } finally {
+                updatingOverlay = false;
+            }
+        }
+
+        var oldMode = getHighlightingMode();
+        var mode = oldMode;
+        if (replaced) {
+            documentLength = -1;
+            mode = updateHighlightingMode(model);
+        } else {
+            updateDocumentLength(model, start, end, charsTop, linesAdded, charsBottom);
+        }
+
+        if (mode == HighlightingMode.VIEWPORT) {
+            cancelProgressiveJob();
+            invalidateViewport(start.index());
+            setLines(PersistentLineVector.empty());
             return;
         }
-        String text = getPlainText(model);
 
-        if (text.isEmpty()) {
-            paragraphs = List.of();
+        clearViewport();
+
+        var provider = styleProvider;
+        var remapped = provider != null && mode == oldMode ? remapLines(model, start, end, linesAdded) : null;
+        if (provider == null || remapped == null) {
+            // the lines can't be mapped, e.g. the document has been replaced,
+            // or they have been tokenized in another mode
+            rebuildLines(model);
+            return;
+        }
+
+        int removed = end.index() - start.index();
+        int editEnd = start.index() + linesAdded;
+        int fromLine = start.index();
+        int convergeFrom = editEnd + 1;
+
+        // lines after an interrupted progressive job come from an older pass,
+        // and the convergence can only be trusted after that job's position
+        var job = progressiveJob;
+        if (job != null) {
+            var task = job.task;
+            int startLine = start.index();
+            int endLine = end.index();
+            if (task.nextLine <= startLine) {
+                fromLine = task.nextLine;
+            } else {
+                int nextLine = mapLine(task.nextLine, startLine, endLine, editEnd, removed, linesAdded);
+                convergeFrom = Math.max(convergeFrom, nextLine);
+            }
+            int taskConvergeFrom = mapLine(task.convergeFrom, startLine, endLine, editEnd, removed, linesAdded);
+            convergeFrom = Math.max(convergeFrom, taskConvergeFrom);
+        }
+
+        cancelProgressiveJob();
+        setLines(remapped);
+
+        if (frameBudget != null) {
+            startProgressiveJob(model, new Retokenization(fromLine, convergeFrom, 0, -1));
             return;
         }
 
-        paragraphs = createRichParagraphs(styleProvider, text);
+        // the edited lines are re-requested by the CodeArea anyway, so only the lines
+        // restyled beyond them (e.g. after opening a block comment) are reported
+        var changed = new ArrayList<int[]>();
+        var task = new Retokenization(fromLine, convergeFrom, start.index(), editEnd);
+        retokenize(provider, model, task, Long.MAX_VALUE, changed);
+
+        if (memoryManager != null) {
+            memoryManager.update(this);
+        }
+
+        if (!changed.isEmpty()) {
+            // the model listeners haven't processed the text change yet
+            addPendingStyleChanges(changed);
+        }
     }
 
     /**
-     * Refreshes the text and styles of the associated rich text control.
+     * Re-tokenizes the document and notifies the associated rich text control
+     * about the lines whose styles have changed, e.g. after the theme change.
      */
     public void refresh(StyledTextModel model) {
-        model.fireStyleChangeEvent(TextPos.ZERO, model.getDocumentEnd());
+        clearViewport();
+
+        if (model instanceof CodeTextModel codeModel) {
+            var oldMode = getHighlightingMode();
+            if (updateHighlightingMode(codeModel) != oldMode) {
+                // the lines tokenized in another mode can't converge with the new ones
+                if (getHighlightingMode() == HighlightingMode.VIEWPORT) {
+                    cancelProgressiveJob();
+                    setLines(PersistentLineVector.empty());
+                } else {
+                    rebuildLines(codeModel);
+                }
+                model.fireStyleChangeEvent(TextPos.ZERO, model.getDocumentEnd());
+                return;
+            }
+        }
+
+        var provider = styleProvider;
+        var lines = this.lines;
+        if (getHighlightingMode() == HighlightingMode.VIEWPORT || !(model instanceof CodeTextModel codeModel)
+            || provider == null || lines == null || lines.size() != model.size()) {
+            model.fireStyleChangeEvent(TextPos.ZERO, model.getDocumentEnd());
+            return;
+        }
+
+        // nothing is edited, so the lines can't converge
+        var task = new Retokenization(0, Integer.MAX_VALUE, 0, -1);
+        if (frameBudget != null) {
+            startProgressiveJob(codeModel, task);
+            return;
+        }
+
+        cancelProgressiveJob();
+        var changed = new ArrayList<int[]>();
+        retokenize(provider, codeModel, task, Long.MAX_VALUE, changed);
+        fireStyleChanges(codeModel, changed);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getRetainedSize() {
+        return lines != null ? retainedSize : 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean canEvict() {
+        var area = codeArea;
+        return area == null || area.getScene() == null || !area.isVisible();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void evict() {
+        // the job is resumed when the lines are restored
+        var job = progressiveJob;
+        cancelProgressiveJob();
+        if (lines != null && !lines.isEmpty()) {
+            evictedLines = new SoftReference<>(lines);
+            evictedTask = job != null ? job.task : null;
+            lines = null;
+        }
     }
 
     //*************************************************************************
 
-    protected List<RichParagraph> createRichParagraphs(StyleProvider provider, String text) {
+    /**
+     * Counts the document length and selects the highlighting mode for the given model.
+     * This is only done when the whole document changes or is refreshed. The length is
+     * only counted up to the largest threshold, so this is cheap even for huge documents.
+     */
+    protected HighlightingMode updateHighlightingMode(CodeTextModel model) {
+        var policy = highlightingPolicy;
+        int lineCount = model.size();
+
+        if (documentLength < 0 || model != measuredModel || documentLines != lineCount) {
+            long limit = getLengthLimit();
+            long length = 0;
+            for (int i = 0; i < lineCount && length <= limit; i++) {
+                length += model.getPlainText(i).length() + 1;
+            }
+            measuredModel = model;
+            documentLength = length;
+            documentLines = lineCount;
+        }
+
+        var mode = policy.select(documentLength, lineCount);
+        highlightingMode.set(mode);
+        return mode;
+    }
+
+    /**
+     * Updates the document length from the change event. Only the inserted lines are
+     * read from the model, while the length of the removed lines is taken from their
+     * tokens. If it's not known, the length is counted on the next mode selection.
+     */
+    protected void updateDocumentLength(CodeTextModel model, TextPos start, TextPos end,
+                                        int charsTop, int linesAdded, int charsBottom) {
+        documentLines = model.size();
+        if (documentLength < 0 || documentLength > getLengthLimit()) {
+            documentLength = -1; // the count has been stopped at the limit
+            return;
+        }
+
+        long removed = end.offset() - start.offset();
+        if (start.index() != end.index()) {
+            removed = end.offset() + end.index() - start.index() - start.offset();
+            for (int i = start.index(); i < end.index(); i++) {
+                int length = getTokenizedLength(i);
+                if (length < 0) {
+                    documentLength = -1;
+                    return;
+                }
+                removed += length;
+            }
+        }
+
+        long inserted = charsTop + linesAdded + charsBottom;
+        for (int i = start.index() + 1; i < start.index() + linesAdded; i++) {
+            inserted += model.getPlainText(i).length();
+        }
+
+        documentLength += inserted - removed;
+    }
+
+    /**
+     * Returns the current state of the given style provider, interned.
+     */
+    protected @Nullable IStateStack internState(StyleProvider provider) {
+        var state = provider.getState();
+        // the provider interns the states itself if it has an interner
+        return provider.getStateInterner() != null ? state : StateStackInterner.getDefault().intern(state);
+    }
+
+    /**
+     * Tokenizes the requested line on demand. The tokenization resumes from the
+     * nearest preceding checkpoint, and all lines tokenized along the way are cached.
+     */
+    protected List<StyledToken> getViewportTokens(CodeTextModel model, int index) {
+        var cached = viewportCache.get(index);
+        if (cached != null) {
+            return cached;
+        }
+
+        var provider = styleProvider;
+        if (provider == null || index >= model.size()) {
+            return List.of();
+        }
+
+        checkpoints.markHot(index);
+        var checkpoint = checkpoints.floor(index);
+        provider.setState(checkpoint.state());
+
+        List<StyledToken> tokens = List.of();
+        for (int i = checkpoint.line(); i <= index; i++) {
+            tokens = provider.tokenize(model.getPlainText(i), HighlightingMode.VIEWPORT);
+            checkpoints.put(i + 1, internState(provider));
+            viewportCache.put(i, tokens);
+        }
+
+        return tokens;
+    }
+
+    /**
+     * Returns the document length the counting stops at, i.e. the largest threshold.
+     */
+    protected long getLengthLimit() {
+        var policy = highlightingPolicy;
+        return Math.max(Math.max(policy.maxFullLength(), policy.maxViewportLength()), policy.maxFallbackLength());
+    }
+
+    /**
+     * Returns the length of the given line before the change from its tokens,
+     * or -1 if the line hasn't been tokenized.
+     */
+    protected int getTokenizedLength(int index) {
+        var lines = this.lines;
+        var line = lines != null && index < lines.size() ? lines.get(index) : null;
+        var tokens = line != null ? line.tokens() : viewportCache.get(index);
+        if (tokens == null) {
+            return -1;
+        }
+
+        int length = 0;
+        for (var token : tokens) {
+            length += token.text().length();
+        }
+        return length;
+    }
+
+    protected void invalidateViewport(int fromLine) {
+        checkpoints.invalidateFrom(fromLine + 1);
+        viewportCache.keySet().removeIf(line -> line >= fromLine);
+    }
+
+    protected void clearViewport() {
+        checkpoints.clear();
+        viewportCache.clear();
+    }
+
+    protected PersistentLineVector<@Nullable LineTokens> getLines(CodeTextModel model) {
+        var lines = this.lines;
+        if (lines != null) {
+            if (memoryManager != null) {
+                memoryManager.touch(this);
+            }
+            return lines;
+        }
+
+        // restore the evicted lines if they're still reachable, or rebuild them
+        lines = evictedLines != null ? evictedLines.get() : null;
+        var task = evictedTask;
+        evictedLines = null;
+        evictedTask = null;
+        if (lines != null) {
+            this.lines = lines;
+            if (task != null && styleProvider != null && frameBudget != null) {
+                // the lines that haven't been tokenized before the eviction
+                startProgressiveJob(model, task);
+            }
+            if (memoryManager != null) {
+                memoryManager.update(this);
+            }
+            return lines;
+        }
+
+        // collected, tokenize progressively if the frame budget is set, so that
+        // restoring a large document doesn't block the frame
+        rebuildLines(model);
+        lines = this.lines;
+        return lines != null ? lines : PersistentLineVector.empty();
+    }
+
+    protected void setLines(PersistentLineVector<@Nullable LineTokens> lines) {
+        this.lines = lines;
+        this.evictedLines = null;
+        this.evictedTask = null;
+        if (lines.isEmpty()) {
+            retainedSize = 0;
+        }
+        if (memoryManager != null) {
+            memoryManager.update(this);
+        }
+    }
+
+    /**
+     * Tokenizes all lines again, either at once or progressively, without
+     * converging with the previous tokenization.
+     */
+    protected void rebuildLines(CodeTextModel model) {
+        cancelProgressiveJob();
+        if (frameBudget != null && styleProvider != null) {
+            retainedSize = 0;
+            setLines(PersistentLineVector.of(Collections.nCopies(model.size(), null)));
+            startProgressiveJob(model, new Retokenization(0, Integer.MAX_VALUE, 0, -1));
+        } else {
+            setLines(tokenizeLines(model));
+        }
+    }
+
+    protected PersistentLineVector<@Nullable LineTokens> tokenizeLines(CodeTextModel model) {
+        if (styleProvider == null) {
+            return PersistentLineVector.empty();
+        }
+        String text = getPlainText(model);
+
+        if (text.isEmpty()) {
+            return PersistentLineVector.empty();
+        }
+
+        return tokenizeLines(styleProvider, text);
+    }
+
+    protected PersistentLineVector<@Nullable LineTokens> tokenizeLines(StyleProvider provider, String text) {
         String[] lines = text.split(LINE_SPLIT_PATTERN);
-        var paragraphs = new ArrayList<RichParagraph>(lines.length);
+        var result = new ArrayList<@Nullable LineTokens>(lines.length);
+        var mode = getHighlightingMode();
+        long size = 0;
 
+        provider.setState(null);
         for (var line : lines) {
-            var tokens = provider.tokenize(line);
-            var paragraph = RichParagraph.builder();
+            var tokens = provider.tokenize(line, mode);
+            size += StyleHelper.estimateRetainedSize(line, tokens.size());
+            result.add(new LineTokens(tokens, internState(provider)));
+        }
+
+        retainedSize = size;
+        return PersistentLineVector.of(result);
+    }
+
+    /**
+     * Maps the lines to the model after the change: the lines before and after the
+     * changed range are kept, and the changed lines become not tokenized.
+     *
+     * @return the remapped lines, or {@code null} if they can't be mapped to the model
+     */
+    protected @Nullable PersistentLineVector<@Nullable LineTokens> remapLines(CodeTextModel model, TextPos start,
+                                                                              TextPos end, int linesAdded) {
+        var old = lines;
+        int removed = end.index() - start.index();
+        if (old == null || old.size() <= end.index() || old.size() - removed + linesAdded != model.size()) {
+            return null;
+        }
+
+        for (int i = start.index(); i <= end.index(); i++) {
+            retainedSize -= estimateRetainedSize(old.get(i));
+        }
+
+        return old.replace(start.index(), end.index() + 1, Collections.nCopies(linesAdded + 1, null));
+    }
 
+    protected void startProgressiveJob(CodeTextModel model, Retokenization task) {
+        cancelProgressiveJob();
+        var job = new ProgressiveJob(model, task);
+        progressiveJob = job;
+        job.start();
+    }
+
+    protected void cancelProgressiveJob() {
+        if (progressiveJob != null) {
+            progressiveJob.stop();
+            progressiveJob = null;
+        }
+    }
+
+    /**
+     * Tokenizes the lines starting from the task position until the deadline, the end of
+     * the document, or the convergence with the previous tokenization, i.e. until a line
+     * after the edited range ends in the same state and has the same tokens as before.
+     * The lines whose tokens have changed are added to the given list as line ranges.
+     * The re-tokenized lines are published as a single new version of the lines.
+     *
+     * @return {@code true} if no more lines need to be tokenized
+     */
+    protected boolean retokenize(StyleProvider provider, CodeTextModel model,
+                                 Retokenization task, long deadline, List<int[]> changed) {
+        var lines = this.lines;
+        if (lines == null || task.nextLine >= lines.size()) {
+            return true;
+        }
+
+        int fromLine = task.nextLine;
+        var batch = new ArrayList<@Nullable LineTokens>();
+        boolean converged = false;
+
+        var mode = getHighlightingMode();
+        var prev = task.nextLine > 0 ? lines.get(task.nextLine - 1) : null;
+        provider.setState(prev != null ? prev.endState() : null);
+
+        // at least one line per call to guarantee progress
+        do {
+            int index = task.nextLine++;
+            var old = lines.get(index);
+            var tokens = provider.tokenize(model.getPlainText(index), mode);
+            var state = internState(provider);
+
+            boolean sameTokens = old != null && old.tokens().equals(tokens);
+            boolean sameState = old != null && StateStackInterner.isSame(old.endState(), state);
+
+            if (!sameTokens) {
+                var line = new LineTokens(tokens, state);
+                retainedSize += estimateRetainedSize(line) - estimateRetainedSize(old);
+                batch.add(line);
+                if (index < task.silentFrom || index > task.silentTo) {
+                    addChangedLine(changed, index);
+                }
+            } else if (!sameState) {
+                batch.add(new LineTokens(old.tokens(), state));
+            } else {
+                batch.add(old);
+                if (index >= task.convergeFrom) {
+                    converged = true; // the rest of the document is unaffected
+                    break;
+                }
+            }
+        } while (task.nextLine < lines.size() && System.nanoTime() < deadline);
+
+        this.lines = lines.replace(fromLine, task.nextLine, batch);
+        return converged || task.nextLine >= lines.size();
+    }
+
+    protected void fireStyleChanges(CodeTextModel model, List<int[]> changed) {
+        int lineCount = model.size();
+        for (var range : changed) {
+            if (range[0] >= lineCount) {
+                continue;
+            }
+
+            var start = TextPos.ofLeading(range[0], 0);
+            var end = range[1] + 1 < lineCount ? TextPos.ofLeading(range[1] + 1, 0) : model.getDocumentEnd();
+            model.fireStyleChangeEvent(start, end);
+        }
+    }
+
+    /**
+     * Creates the styled paragraph from the line tokens, merging them with
+     * the overlay ranges, if any.
+     */
+    protected RichParagraph buildParagraph(int index, List<StyledToken> tokens) {
+        var paragraph = RichParagraph.builder();
+        var ranges = overlay != null ? overlay.getRanges(index) : List.<OverlayRange>of();
+
+        if (ranges.isEmpty()) {
             for (var token : tokens) {
                 applyStyles(paragraph, token);
             }
+            return paragraph.build();
+        }
+
+        int offset = 0;
+        for (var token : tokens) {
+            int tokenStart = offset;
+            int tokenEnd = offset + token.text().length();
+            offset = tokenEnd;
+
+            // split the token at the overlay range boundaries
+            int pos = tokenStart;
+            while (pos < tokenEnd) {
+                int next = tokenEnd;
+                StyleAttributeMap style = token.style();
 
-            paragraphs.add(paragraph.build());
+                for (var range : ranges) {
+                    int rangeStart = range.getStartOffset(index);
+                    int rangeEnd = range.getEndOffset(index);
+
+                    if (rangeStart > pos) {
+                        next = Math.min(next, rangeStart);
+                    } else if (rangeEnd > pos) {
+                        next = Math.min(next, rangeEnd);
+                        style = style != null ? style.combine(range.style()) : range.style();
+                    }
+                }
+
+                var text = token.text().substring(pos - tokenStart, next - tokenStart);
+                applyStyles(paragraph, new StyledToken(text, style));
+                pos = next;
+            }
         }
 
-        return paragraphs;
+        return paragraph.build();
+    }
+
+    protected void onOverlayChanged(int fromLine, int toLine) {
+        if (updatingOverlay) {
+            // called from handleChange(), before the model listeners processed the change
+            addPendingStyleChanges(List.of(new int[] { fromLine, toLine }));
+            return;
+        }
+
+        var model = this.model;
+        if (model == null || model.size() == 0) {
+            return;
+        }
+
+        int lastLine = model.size() - 1;
+        if (fromLine > lastLine) {
+            return;
+        }
+
+        var start = TextPos.ofLeading(fromLine, 0);
+        var end = toLine < lastLine ? TextPos.ofLeading(toLine + 1, 0) : model.getDocumentEnd();
+        model.fireStyleChangeEvent(start, end);
     }
 
     protected String getPlainText(CodeTextModel model) {
@@ -124,6 +888,150 @@ public class StatelessSyntaxDecorator implements SyntaxDecorator, StyledModel {
             paragraphBuilder.addSegment(token.text());
             return;
         }
+
+        var provider = styleProvider;
+        var stylesheet = provider != null && provider.isStyleClassesEnabled() ? provider.getStylesheet() : null;
+        var styleClasses = stylesheet != null ? stylesheet.getStyleClasses(token.style()) : null;
+        if (styleClasses != null) {
+            paragraphBuilder.addWithStyleNames(token.text(), styleClasses);
+            return;
+        }
+
         paragraphBuilder.addSegment(token.text(), token.style());
     }
+
+    //*************************************************************************
+
+    /**
+     * The position and bounds of an incremental re-tokenization.
+     */
+    protected static final class Retokenization {
+
+        /**
+         * The next line to tokenize.
+         */
+        protected int nextLine;
+
+        /**
+         * The first line the tokenization may stop at, if its result hasn't changed.
+         */
+        protected final int convergeFrom;
+
+        /**
+         * The range of lines that don't need to be reported as changed.
+         */
+        protected final int silentFrom;
+        protected final int silentTo;
+
+        protected Retokenization(int nextLine, int convergeFrom, int silentFrom, int silentTo) {
+            this.nextLine = nextLine;
+            this.convergeFrom = convergeFrom;
+            this.silentFrom = silentFrom;
+            this.silentTo = silentTo;
+        }
+    }
+
+    /**
+     * Re-tokenizes the lines within the frame budget, and fires the style change
+     * events for the changed lines after each frame.
+     */
+    protected class ProgressiveJob extends AnimationTimer {
+
+        protected final CodeTextModel model;
+        protected final Retokenization task;
+
+        protected ProgressiveJob(CodeTextModel model, Retokenization task) {
+            this.model = model;
+            this.task = task;
+        }
+
+        @Override
+        public void handle(long now) {
+            var provider = styleProvider;
+            var lines = StatelessSyntaxDecorator.this.lines;
+            var budget = frameBudget;
+            if (provider == null || lines == null || budget == null || lines.size() != model.size()) {
+                stop();
+                return;
+            }
+
+            var changed = new ArrayList<int[]>();
+            boolean done = retokenize(provider, model, task, System.nanoTime() + budget.toNanos(), changed);
+            fireStyleChanges(model, changed);
+
+            if (done) {
+                stop();
+                progressiveJob = null;
+                if (memoryManager != null) {
+                    memoryManager.update(StatelessSyntaxDecorator.this);
+                }
+            }
+        }
+    }
+
+    private void addPendingStyleChanges(List<int[]> changed) {
+        pendingStyleChanges.addAll(changed);
+        if (!styleChangesScheduled) {
+            styleChangesScheduled = true;
+            Platform.runLater(this::firePendingStyleChanges);
+        }
+    }
+
+    private void firePendingStyleChanges() {
+        styleChangesScheduled = false;
+        var model = this.model;
+        if (model == null || pendingStyleChanges.isEmpty()) {
+            return;
+        }
+
+        var changed = new ArrayList<>(pendingStyleChanges);
+        pendingStyleChanges.clear();
+        fireStyleChanges(model, changed);
+    }
+
+    /**
+     * Maps the pending style change ranges to the line indexes after the given edit.
+     * The ranges overlapping the edited lines are clamped to them.
+     */
+    private void shiftPendingStyleChanges(int start, int end, int linesAdded) {
+        int editEnd = start + linesAdded;
+        int delta = linesAdded - (end - start);
+        for (var range : pendingStyleChanges) {
+            range[0] = range[0] < start ? range[0] : range[0] <= end ? start : range[0] + delta;
+            range[1] = range[1] < start ? range[1] : range[1] <= end ? editEnd : range[1] + delta;
+        }
+    }
+
+    private static int mapLine(int line, int start, int end, int editEnd, int removed, int linesAdded) {
+        if (line < start || line == Integer.MAX_VALUE) {
+            return line;
+        }
+        if (line <= end) {
+            return editEnd + 1;
+        }
+        return line - removed + linesAdded;
+    }
+
+    private static void addChangedLine(List<int[]> changed, int line) {
+        if (!changed.isEmpty()) {
+            var last = changed.getLast();
+            if (last[1] + 1 == line) {
+                last[1] = line;
+                return;
+            }
+        }
+        changed.add(new int[] { line, line });
+    }
+
+    private static long estimateRetainedSize(@Nullable LineTokens line) {
+        if (line == null) {
+            return 0;
+        }
+
+        int length = 0;
+        for (var token : line.tokens()) {
+            length += token.text().length();
+        }
+        return StyleHelper.estimateRetainedSize(length, line.tokens().size());
+    }
 }
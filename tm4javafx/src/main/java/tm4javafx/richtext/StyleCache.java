@@ -0,0 +1,130 @@
+/* SPDX-License-Identifier: MIT */
+
+package tm4javafx.richtext;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import jfx.incubator.scene.control.richtext.model.StyleAttributeMap;
+import org.jspecify.annotations.Nullable;
+import tm4java.theme.ITheme;
+import tm4java.theme.StyleAttributes;
+
+/**
+ * A theme-scoped flyweight cache of the resolved styles.
+ * <p>
+ * All style providers that use the same theme share a single cache instance, see
+ * {@link #forTheme(ITheme)}, and therefore a single canonical {@link StyleAttributeMap}
+ * per distinct style. This reduces the memory usage and allows comparing the
+ * resolved styles by identity.
+ * <p>
+ * The cache is thread-safe and bounded. Once the limit is reached, new styles are
+ * still resolved, but no longer cached. Themes rarely define more than a few hundred
+ * distinct styles, so the limit only protects against pathological themes.
+ */
+public class StyleCache {
+
+    public static final int DEFAULT_MAX_SIZE = 4_096;
+
+    private static final Map<ITheme, StyleCache> CACHES = new WeakHashMap<>();
+
+    protected final int maxSize;
+    protected final ConcurrentHashMap<StyleAttributes, StyleAttributeMap> styles = new ConcurrentHashMap<>();
+    private final IntStyleMap packedStyles = new IntStyleMap(64);
+    protected final ScopeMatcher scopeMatcher = new ScopeMatcher(ScopeMatcher.DEFAULT_MAX_NODES);
+    protected volatile @Nullable StyleAttributeMap defaults;
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maxSize the maximum number of cached styles
+     */
+    public StyleCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Max size must be positive");
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the shared cache for the given theme. The cache is released
+     * when the theme is garbage collected.
+     */
+    public static StyleCache forTheme(ITheme theme) {
+        synchronized (CACHES) {
+            return CACHES.computeIfAbsent(theme, t -> new StyleCache(DEFAULT_MAX_SIZE));
+        }
+    }
+
+    /**
+     * Returns the canonical style for the given style attributes, resolving and
+     * caching it if needed.
+     *
+     * @param attrs    the style attributes
+     * @param settings the theme settings that convert the style attributes to the style
+     */
+    public StyleAttributeMap get(StyleAttributes attrs, ThemeSettings settings) {
+        int key = StyleKey.pack(attrs);
+        if (key != StyleKey.NONE) {
+            var style = packedStyles.get(key);
+            if (style != null) {
+                return style;
+            }
+
+            style = settings.resolve(attrs);
+            return size() < maxSize ? packedStyles.putIfAbsent(key, style) : style;
+        }
+
+        // the attributes that don't fit into the packed key
+        var style = styles.get(attrs);
+        if (style != null) {
+            return style;
+        }
+
+        style = settings.resolve(attrs);
+        if (size() >= maxSize) {
+            return style;
+        }
+
+        var existing = styles.putIfAbsent(attrs, style);
+        return existing != null ? existing : style;
+    }
+
+    /**
+     * Returns the canonical theme default style.
+     *
+     * @param settings the theme settings to obtain the default style from
+     */
+    public StyleAttributeMap getDefaults(ThemeSettings settings) {
+        var style = defaults;
+        if (style == null) {
+            style = settings.getMergedDefaults();
+            defaults = style; // a benign race, the styles are equal anyway
+        }
+        return style;
+    }
+
+    /**
+     * Returns the scope matcher that resolves the token scope stacks for this theme.
+     */
+    public ScopeMatcher getScopeMatcher() {
+        return scopeMatcher;
+    }
+
+    /**
+     * Returns the number of cached styles.
+     */
+    public int size() {
+        return packedStyles.size() + styles.size();
+    }
+
+    /**
+     * Removes all cached styles.
+     */
+    public void clear() {
+        styles.clear();
+        packedStyles.clear();
+        scopeMatcher.clear();
+        defaults = null;
+    }
+}
@@ -0,0 +1,109 @@
+/* SPDX-License-Identifier: MIT */
+
+package tm4javafx.richtext;
+
+import javafx.scene.paint.Color;
+import jfx.incubator.scene.control.richtext.model.StyleAttributeMap;
+
+/**
+ * Encodes the style attributes used by the syntax styles into three {@code int} values
+ * (the flags, the text color and the background color), so that they can be stored
+ * in a binary format and restored as an equal {@link StyleAttributeMap}.
+ * The attributes that are not set remain unset after decoding.
+ */
+final class StyleCodec {
+
+    private static final int HAS_TEXT_COLOR = 1;
+    private static final int HAS_BACKGROUND = 1 << 1;
+    private static final int HAS_BOLD = 1 << 2;
+    private static final int BOLD = 1 << 3;
+    private static final int HAS_ITALIC = 1 << 4;
+    private static final int ITALIC = 1 << 5;
+    private static final int HAS_UNDERLINE = 1 << 6;
+    private static final int UNDERLINE = 1 << 7;
+    private static final int HAS_STRIKETHROUGH = 1 << 8;
+    private static final int STRIKETHROUGH = 1 << 9;
+
+    private StyleCodec() {
+        // utility class
+    }
+
+    /**
+     * Returns the flags of the set attributes and the font style values.
+     */
+    static int getFlags(StyleAttributeMap style) {
+        int flags = 0;
+        if (style.getTextColor() != null) {
+            flags |= HAS_TEXT_COLOR;
+        }
+        if (style.getBackground() != null) {
+            flags |= HAS_BACKGROUND;
+        }
+        if (style.contains(StyleAttributeMap.BOLD)) {
+            flags |= HAS_BOLD | (style.isBold() ? BOLD : 0);
+        }
+        if (style.contains(StyleAttributeMap.ITALIC)) {
+            flags |= HAS_ITALIC | (style.isItalic() ? ITALIC : 0);
+        }
+        if (style.contains(StyleAttributeMap.UNDERLINE)) {
+            flags |= HAS_UNDERLINE | (style.isUnderline() ? UNDERLINE : 0);
+        }
+        if (style.contains(StyleAttributeMap.STRIKE_THROUGH)) {
+            flags |= HAS_STRIKETHROUGH | (style.isStrikeThrough() ? STRIKETHROUGH : 0);
+        }
+        return flags;
+    }
+
+    /**
+     * Returns the ARGB text color, or zero if not set.
+     */
+    static int getTextColor(StyleAttributeMap style) {
+        var color = style.getTextColor();
+        return color != null ? toArgb(color) : 0;
+    }
+
+    /**
+     * Returns the ARGB background color, or zero if not set.
+     */
+    static int getBackground(StyleAttributeMap style) {
+        var color = style.getBackground();
+        return color != null ? toArgb(color) : 0;
+    }
+
+    /**
+     * Restores the style attributes from the encoded values.
+     */
+    static StyleAttributeMap decode(int flags, int textColor, int background) {
+        var builder = StyleAttributeMap.builder();
+        if ((flags & HAS_TEXT_COLOR) != 0) {
+            builder.setTextColor(fromArgb(textColor));
+        }
+        if ((flags & HAS_BACKGROUND) != 0) {
+            builder.setBackground(fromArgb(background));
+        }
+        if ((flags & HAS_BOLD) != 0) {
+            builder.setBold((flags & BOLD) != 0);
+        }
+        if ((flags & HAS_ITALIC) != 0) {
+            builder.setItalic((flags & ITALIC) != 0);
+        }
+        if ((flags & HAS_UNDERLINE) != 0) {
+            builder.setUnderline((flags & UNDERLINE) != 0);
+        }
+        if ((flags & HAS_STRIKETHROUGH) != 0) {
+            builder.setStrikeThrough((flags & STRIKETHROUGH) != 0);
+        }
+        return builder.build();
+    }
+
+    private static int toArgb(Color color) {
+        return (int) Math.round(color.getOpacity() * 255) << 24
+            | (int) Math.round(color.getRed() * 255) << 16
+            | (int) Math.round(color.getGreen() * 255) << 8
+            | (int) Math.round(color.getBlue() * 255);
+    }
+
+    private static Color fromArgb(int argb) {
+        return Color.rgb((argb >>> 16) & 0xff, (argb >>> 8) & 0xff, argb & 0xff, ((argb >>> 24) & 0xff) / 255.0);
+    }
+}
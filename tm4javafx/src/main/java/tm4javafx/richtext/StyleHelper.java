@@ -2,11 +2,11 @@
 
 package tm4javafx.richtext;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import javafx.scene.Node;
+import javafx.scene.Parent;
 import javafx.scene.paint.Color;
 import javafx.scene.text.TextFlow;
 import jfx.incubator.scene.control.richtext.RichTextArea;
@@ -67,44 +67,46 @@ public class StyleHelper {
             return;
         }
         addOrReplaceStyle(textFlow, "-fx-background-color", settings.getBackgroundColor());
+        setStylesheet(textFlow, settings.getStylesheet());
     }
 
     /**
      * Applies the given theme settings to the specified {@code RichTextArea}.
+     * <p>
+     * The stylesheet is compiled once per theme settings, see {@link ThemeSettings#getStylesheet()},
+     * so applying the same settings again is cheap.
      */
     public static void applyThemeSettings(RichTextArea textArea, @Nullable ThemeSettings settings) {
         if (settings == null) {
             return;
         }
+        setStylesheet(textArea, settings.getStylesheet());
+    }
 
-        var rules = new ArrayList<String>();
-
-        rules.add("""
-            .rich-text-area .content,
-            .code-area .left-side {
-                -fx-background-color: %s;
-            }""".formatted(settings.getBackgroundColor()));
-
-        rules.add("""
-            .rich-text-area .left-side .label {
-                -fx-text-fill: %s;
-            }""".formatted(settings.getForegroundColor()));
-
+    /**
+     * Applies the theme default colors of the given pre-highlighted document to the
+     * specified {@code TextFlow}, so it doesn't need the theme settings.
+     */
+    public static void applyThemeColors(TextFlow textFlow, PreHighlightedDocument document) {
+        addOrReplaceStyle(textFlow, "-fx-background-color", document.getBackgroundColor());
+    }
 
-        String lineHighlight = settings.getSelectionBackgroundColor();
-        if (lineHighlight != null) {
-            rules.add("""
-                .rich-text-area .content .selection-highlight,
-                .rich-text-area .content .caret-line {
-                   -fx-fill: %s;
-                }
-                """.formatted(lineHighlight));
-        }
+    /**
+     * Applies the theme default colors of the given pre-highlighted document to the
+     * specified {@code RichTextArea}, so it doesn't need the theme settings. The theme
+     * stylesheet previously added to the control, if any, is replaced.
+     */
+    public static void applyThemeColors(RichTextArea textArea, PreHighlightedDocument document) {
+        var css = ThemeStylesheet.compileDefaultColors(document.getBackgroundColor(), document.getForegroundColor());
+        setStylesheet(textArea, "data:text/css," + css);
+    }
 
-        textArea.getStylesheets().removeIf(s -> s.startsWith("data:text/css,"));
-        textArea.getStylesheets().add(
-            "data:text/css," + String.join("\n", rules)
-        );
+    /**
+     * Replaces the theme stylesheet previously added to the given parent, if any,
+     * with the specified one.
+     */
+    public static void setStylesheet(Parent parent, ThemeStylesheet stylesheet) {
+        setStylesheet(parent, stylesheet.getUrl());
     }
 
     /**
@@ -116,8 +118,51 @@ public class StyleHelper {
         node.setStyle(toStyleString(styles));
     }
 
+    /**
+     * Converts the color to the "#rrggbb" or, if it's not opaque, "#rrggbbaa" notation,
+     * which is understood by both JavaFX and web CSS.
+     */
+    public static String toCssColor(Color color) {
+        int r = (int) Math.round(color.getRed() * 255);
+        int g = (int) Math.round(color.getGreen() * 255);
+        int b = (int) Math.round(color.getBlue() * 255);
+        int a = (int) Math.round(color.getOpacity() * 255);
+
+        return a == 255
+            ? String.format("#%02x%02x%02x", r, g, b)
+            : String.format("#%02x%02x%02x%02x", r, g, b, a);
+    }
+
+    /**
+     * Roughly estimates the memory, in bytes, retained by a styled line: the segment
+     * text and the segment objects. The style attributes are shared and not counted.
+     *
+     * @param line     the line text
+     * @param segments the number of styled segments
+     */
+    public static long estimateRetainedSize(String line, int segments) {
+        return estimateRetainedSize(line.length(), segments);
+    }
+
+    /**
+     * Same as {@link #estimateRetainedSize(String, int)}, but takes the line length.
+     */
+    public static long estimateRetainedSize(int lineLength, int segments) {
+        return 64L + 2L * lineLength + 72L * segments;
+    }
+
     //*************************************************************************
 
+    private static void setStylesheet(Parent parent, String url) {
+        var stylesheets = parent.getStylesheets();
+        if (stylesheets.contains(url)) {
+            return;
+        }
+
+        stylesheets.removeIf(s -> s.startsWith("data:text/css,"));
+        stylesheets.add(url);
+    }
+
     private static Map<String, String> parseStyle(@Nullable String style) {
         var styleMap = new TreeMap<String, String>();
 
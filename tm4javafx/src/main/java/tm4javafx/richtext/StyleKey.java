@@ -0,0 +1,69 @@
+/* SPDX-License-Identifier: MIT */
+
+package tm4javafx.richtext;
+
+import tm4java.theme.StyleAttributes;
+
+/**
+ * Packs the theme {@link StyleAttributes} into a single non-negative {@code int},
+ * so that resolved styles can be looked up without boxing, {@code equals()} and
+ * {@code hashCode()} calls on the per-token path.
+ * <p>
+ * The key layout is: 5 bits of the font style (shifted by one, so that "not set"
+ * is zero), followed by 13 bits of the foreground color id and 13 bits of the
+ * background color id. These are the only attributes the resolved style depends on.
+ */
+public final class StyleKey {
+
+    /**
+     * The value returned for the style attributes that don't fit into the key.
+     */
+    public static final int NONE = -1;
+
+    static final int COLOR_BITS = 13;
+    static final int COLOR_MASK = (1 << COLOR_BITS) - 1;
+    static final int FONT_STYLE_MASK = (1 << 5) - 1;
+
+    private StyleKey() {
+        // utility class
+    }
+
+    /**
+     * Returns the packed key of the given style attributes, or {@link #NONE}
+     * if any of the attributes is out of range.
+     */
+    public static int pack(StyleAttributes attrs) {
+        int fontStyle = attrs.fontStyle() + 1;
+        int foreground = attrs.foregroundId();
+        int background = attrs.backgroundId();
+
+        if ((fontStyle & ~FONT_STYLE_MASK) != 0
+            || (foreground & ~COLOR_MASK) != 0
+            || (background & ~COLOR_MASK) != 0) {
+            return NONE;
+        }
+
+        return (fontStyle << (2 * COLOR_BITS)) | (foreground << COLOR_BITS) | background;
+    }
+
+    /**
+     * Returns the font style of the packed key.
+     */
+    public static int fontStyle(int key) {
+        return ((key >>> (2 * COLOR_BITS)) & FONT_STYLE_MASK) - 1;
+    }
+
+    /**
+     * Returns the foreground color id of the packed key.
+     */
+    public static int foregroundId(int key) {
+        return (key >>> COLOR_BITS) & COLOR_MASK;
+    }
+
+    /**
+     * Returns the background color id of the packed key.
+     */
+    public static int backgroundId(int key) {
+        return key & COLOR_MASK;
+    }
+}
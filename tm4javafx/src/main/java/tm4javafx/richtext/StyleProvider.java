@@ -4,7 +4,6 @@ package tm4javafx.richtext;
 
 import java.time.Duration;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Objects;
 import jfx.incubator.scene.control.richtext.model.StyleAttributeMap;
@@ -41,15 +40,27 @@ import tm4java.theme.StyleAttributes;
 public class StyleProvider {
 
     protected static final Duration DEFAULT_TOKENIZATION_TIMEOUT = Duration.ofSeconds(1);
+    // windowed tokenization is opt-in, it may change the highlighting of long lines
+    protected static final int DEFAULT_LONG_LINE_THRESHOLD = Integer.MAX_VALUE;
+    protected static final int DEFAULT_LONG_LINE_WINDOW = 2_000;
+    protected static final int DEFAULT_MAX_LINE_LENGTH = 1_000_000;
 
     protected final Registry registry;
-    protected final HashMap<StyleAttributes, StyleAttributeMap> styleCache = new HashMap<>();
 
     protected @Nullable IGrammar grammar;
     protected @Nullable ITheme theme;
     protected @Nullable IStateStack prevState;
     protected @Nullable ThemeSettings themeSettings;
+    protected @Nullable StyleCache styleCache;
+    protected @Nullable ITheme themeSettingsSource;
+    protected @Nullable StateStackInterner stateInterner;
+    protected @Nullable LineTokenCache lineTokenCache;
+    private @Nullable FallbackLexer fallbackLexer;
     protected Duration tokenizationTimeout = DEFAULT_TOKENIZATION_TIMEOUT;
+    protected int longLineThreshold = DEFAULT_LONG_LINE_THRESHOLD;
+    protected int longLineWindow = DEFAULT_LONG_LINE_WINDOW;
+    protected int maxLineLength = DEFAULT_MAX_LINE_LENGTH;
+    protected boolean styleClassesEnabled;
 
     /**
      * Creates a new {@code StyleProvider} with a new registry.
@@ -143,6 +154,81 @@ public class StyleProvider {
         return doTokenize(line);
     }
 
+    /**
+     * Tokenizes the given line of text using the specified highlighting mode.
+     * <p>
+     * The {@link HighlightingMode#FULL} and {@link HighlightingMode#VIEWPORT} modes are
+     * the same as {@link #tokenize(String)}. The other modes don't use the grammar,
+     * and don't change the maintained tokenization state.
+     */
+    public List<StyledToken> tokenize(String line, HighlightingMode mode) {
+        return switch (mode) {
+            case FULL, VIEWPORT -> doTokenize(line);
+            case FALLBACK -> doTokenizeFallback(line);
+            case PLAIN -> doTokenizePlain(line);
+        };
+    }
+
+    /**
+     * Returns the grammar state after the last tokenized line, or {@code null}
+     * if nothing has been tokenized since the last reset.
+     * <p>
+     * The returned state can be stored (see {@link StateCheckpointStore}) and
+     * restored later via {@link #setState(IStateStack)} to resume tokenization
+     * from an arbitrary line.
+     */
+    public @Nullable IStateStack getState() {
+        return prevState;
+    }
+
+    /**
+     * Sets the grammar state the next line tokenization will start from.
+     * The {@code null} value stands for the beginning of the document.
+     * <p>
+     * The state must be obtained from the same grammar.
+     */
+    public void setState(@Nullable IStateStack state) {
+        this.prevState = state;
+    }
+
+    /**
+     * Returns the interner used to deduplicate the grammar states, or {@code null}
+     * if states are not interned.
+     */
+    public @Nullable StateStackInterner getStateInterner() {
+        return stateInterner;
+    }
+
+    /**
+     * Sets the interner used to deduplicate the grammar states. When set, every state
+     * returned by {@link #getState()} is a canonical instance, so equal states can be
+     * compared by reference via {@link StateStackInterner#isSame(IStateStack, IStateStack)}.
+     */
+    public void setStateInterner(@Nullable StateStackInterner stateInterner) {
+        this.stateInterner = stateInterner;
+        if (stateInterner != null) {
+            prevState = stateInterner.intern(prevState);
+        }
+    }
+
+    /**
+     * Returns the cache of tokenized lines, or {@code null} if lines are not cached.
+     */
+    public @Nullable LineTokenCache getLineTokenCache() {
+        return lineTokenCache;
+    }
+
+    /**
+     * Sets the cache of tokenized lines. The cache is keyed by the line text and
+     * the grammar state at the start of the line, so repeated lines are served
+     * without calling the grammar. The same cache can be shared between providers.
+     * <p>
+     * Note that the cached token lists are unmodifiable.
+     */
+    public void setLineTokenCache(@Nullable LineTokenCache lineTokenCache) {
+        this.lineTokenCache = lineTokenCache;
+    }
+
     /**
      * Returns the tokenization timeout, after which tokenization is aborted.
      */
@@ -157,20 +243,143 @@ public class StyleProvider {
         this.tokenizationTimeout = Objects.requireNonNullElse(tokenizationTimeout, DEFAULT_TOKENIZATION_TIMEOUT);
     }
 
+    /**
+     * Returns the line length, after which the line is tokenized in windows,
+     * or {@link Integer#MAX_VALUE} if windowed tokenization is disabled.
+     */
+    public int getLongLineThreshold() {
+        return longLineThreshold;
+    }
+
+    /**
+     * Sets the line length, after which the line is tokenized in windows.
+     * <p>
+     * Minified sources or single-line data files may contain lines of several megabytes.
+     * Passing such a line to the grammar at once either hits the tokenization timeout,
+     * leaving the whole line unstyled, or blocks for a long time. Instead, long lines
+     * are split into windows of {@link #getLongLineWindow()} characters (preferably at
+     * whitespace or punctuation), which are tokenized one after another, carrying the
+     * grammar state over. The whole line shares a single tokenization timeout; the
+     * remainder of the line that didn't fit into it is left unstyled.
+     * <p>
+     * Each window is passed to the grammar as a separate line, so the rules anchored
+     * at the line start or end (e.g. {@code \G} or {@code $}) also match at the window
+     * boundaries, and constructs crossing the boundary may be styled differently.
+     * For this reason, windowed tokenization is disabled by default, i.e. the threshold
+     * is {@link Integer#MAX_VALUE}. A threshold of about 10 000 characters is a reasonable
+     * choice for displaying minified sources.
+     * <p>
+     * Only the tokenization is bounded. The long line is still displayed as a single
+     * paragraph, it's not rendered lazily.
+     */
+    public void setLongLineThreshold(int longLineThreshold) {
+        if (longLineThreshold <= 0) {
+            throw new IllegalArgumentException("Long line threshold must be positive");
+        }
+        this.longLineThreshold = longLineThreshold;
+    }
+
+    /**
+     * Returns the size of the window, in characters, long lines are tokenized by.
+     */
+    public int getLongLineWindow() {
+        return longLineWindow;
+    }
+
+    /**
+     * Sets the size of the window, in characters, long lines are tokenized by.
+     * See {@link #setLongLineThreshold(int)} for more information.
+     */
+    public void setLongLineWindow(int longLineWindow) {
+        if (longLineWindow <= 0) {
+            throw new IllegalArgumentException("Long line window must be positive");
+        }
+        this.longLineWindow = longLineWindow;
+    }
+
+    /**
+     * Returns the maximum line length to tokenize. Longer lines are not tokenized
+     * at all, but returned as a single token with the theme default style.
+     * Only applies to the lines above the {@link #getLongLineThreshold() long line threshold}.
+     */
+    public int getMaxLineLength() {
+        return maxLineLength;
+    }
+
+    /**
+     * Sets the maximum line length to tokenize. Longer lines are not tokenized
+     * at all, but returned as a single token with the theme default style.
+     */
+    public void setMaxLineLength(int maxLineLength) {
+        if (maxLineLength <= 0) {
+            throw new IllegalArgumentException("Max line length must be positive");
+        }
+        this.maxLineLength = maxLineLength;
+    }
+
     /**
      * Returns the current theme settings.
      * <p>
      * See {@link ThemeSettings} for more information.
      */
     public @Nullable ThemeSettings getThemeSettings() {
-        if (themeSettings != null) {
+        // theme settings only depend on the theme, so they survive grammar changes
+        if (themeSettings != null && themeSettingsSource == theme) {
             return themeSettings;
         }
 
         themeSettings = theme != null ? ThemeSettings.from(theme) : null;
+        themeSettingsSource = theme;
         return themeSettings;
     }
 
+    /**
+     * Returns the current theme compiled into a stylesheet, or {@code null} if
+     * the theme is not set.
+     * <p>
+     * See {@link ThemeStylesheet} for more information.
+     */
+    public @Nullable ThemeStylesheet getStylesheet() {
+        var settings = getThemeSettings();
+        return settings != null ? settings.getStylesheet() : null;
+    }
+
+    /**
+     * Returns the style cache shared by all style providers that use the current
+     * theme, or {@code null} if the theme is not set.
+     * <p>
+     * See {@link StyleCache} for more information.
+     */
+    public @Nullable StyleCache getStyleCache() {
+        var cache = styleCache;
+        if (cache == null && theme != null) {
+            cache = StyleCache.forTheme(theme);
+            styleCache = cache;
+        }
+        return cache;
+    }
+
+    /**
+     * Returns whether the models should reference the style classes of the
+     * compiled theme stylesheet instead of setting the style attributes per segment.
+     */
+    public boolean isStyleClassesEnabled() {
+        return styleClassesEnabled;
+    }
+
+    /**
+     * Sets whether the models should reference the style classes of the compiled
+     * theme stylesheet instead of setting the style attributes per segment.
+     * <p>
+     * The stylesheet must be added to the rich text control, see
+     * {@link StyleHelper#applyThemeSettings}. The style classes index the colors of
+     * the current theme, so switching the theme requires replacing the stylesheet
+     * and refreshing the model. Disabled by default.
+     */
+    public void setStyleClassesEnabled(boolean styleClassesEnabled) {
+        this.styleClassesEnabled = styleClassesEnabled;
+    }
+
     /**
      * Resets the maintained tokenization state and internal caches.
      * <p>
@@ -178,8 +387,8 @@ public class StyleProvider {
      */
     public void flush() {
         prevState = null;
-        styleCache.clear();
-        themeSettings = null;
+        styleCache = null;
+        fallbackLexer = null;
     }
 
     //*************************************************************************
@@ -193,25 +402,151 @@ public class StyleProvider {
             return List.of();
         }
 
+        if (line.length() > longLineThreshold) {
+            return doTokenizeLongLine(line);
+        }
+
+        var cache = lineTokenCache;
+        var startState = prevState;
+        if (cache != null) {
+            var cached = cache.get(grammar, theme, startState, line);
+            if (cached != null) {
+                prevState = cached.endState();
+                return cached.tokens();
+            }
+        }
+
         var styledTokens = new ArrayList<StyledToken>();
         ITokenizeLineResult<IToken[]> result = grammar.tokenizeLine(line, prevState, getTokenizationTimeout());
-        prevState = result.ruleStack();
+        prevState = stateInterner != null ? stateInterner.intern(result.ruleStack()) : result.ruleStack();
 
         if (result.stoppedEarly()) {
             return List.of(new StyledToken(line, null));
         }
 
-        for (int i = 0; i < result.tokens().length; i++) {
-            var token = result.tokens()[i];
-            var style = resolveStyle(token.getScopes());
-            var text = line.substring(token.getStartIndex(), token.getEndIndex());
+        addStyledTokens(line, result.tokens(), styledTokens);
+
+        if (cache != null) {
+            var entry = cache.put(grammar, theme, startState, line, styledTokens, prevState);
+            if (entry != null) {
+                return entry.tokens();
+            }
+        }
+
+        return styledTokens;
+    }
+
+    /**
+     * Tokenizes the given line of text with the cheap fallback lexer.
+     * See {@link HighlightingMode#FALLBACK}.
+     */
+    protected List<StyledToken> doTokenizeFallback(String line) {
+        if (theme == null || line.isEmpty()) {
+            return List.of();
+        }
+
+        if (fallbackLexer == null) {
+            fallbackLexer = new FallbackLexer(
+                getDefaultStyle(),
+                resolveStyle(List.of("comment")),
+                resolveStyle(List.of("string")),
+                resolveStyle(List.of("constant.numeric"))
+            );
+        }
+
+        return fallbackLexer.tokenize(line);
+    }
+
+    /**
+     * Returns the given line of text as a single token with the theme default style.
+     * See {@link HighlightingMode#PLAIN}.
+     */
+    protected List<StyledToken> doTokenizePlain(String line) {
+        if (line.isEmpty()) {
+            return List.of();
+        }
+
+        return List.of(new StyledToken(line, getDefaultStyle()));
+    }
+
+    /**
+     * Tokenizes the line that exceeds the long line threshold in bounded windows.
+     * See {@link #setLongLineThreshold(int)} for more information.
+     */
+    protected List<StyledToken> doTokenizeLongLine(String line) {
+        if (grammar == null) {
+            return List.of();
+        }
+
+        if (line.length() > maxLineLength) {
+            // the state is kept as is, the next line is tokenized like this line didn't exist
+            return List.of(new StyledToken(line, getDefaultStyle()));
+        }
+
+        var styledTokens = new ArrayList<StyledToken>();
+        long deadline = System.nanoTime() + getTokenizationTimeout().toNanos();
+        int start = 0;
+
+        while (start < line.length()) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                styledTokens.add(new StyledToken(line.substring(start), null));
+                break;
+            }
+
+            int end = findWindowEnd(line, start);
+            var window = line.substring(start, end);
+
+            ITokenizeLineResult<IToken[]> result = grammar.tokenizeLine(window, prevState, Duration.ofNanos(remaining));
+            prevState = stateInterner != null ? stateInterner.intern(result.ruleStack()) : result.ruleStack();
+
+            if (result.stoppedEarly()) {
+                styledTokens.add(new StyledToken(line.substring(start), null));
+                break;
+            }
 
-            styledTokens.add(new StyledToken(text, style));
+            addStyledTokens(window, result.tokens(), styledTokens);
+            start = end;
         }
 
         return styledTokens;
     }
 
+    /**
+     * Returns the end index of the long line window starting at the given index.
+     * The window is cut after the nearest whitespace or punctuation character,
+     * so that tokens are less likely split between windows.
+     */
+    protected int findWindowEnd(String line, int start) {
+        int end = start + longLineWindow;
+        if (end >= line.length()) {
+            return line.length();
+        }
+
+        int limit = end - longLineWindow / 4;
+        for (int i = end; i > limit; i--) {
+            char c = line.charAt(i - 1);
+            if (Character.isWhitespace(c) || c == ',' || c == ';' || c == '{' || c == '}') {
+                return i;
+            }
+        }
+
+        // don't split surrogate pairs
+        return Character.isHighSurrogate(line.charAt(end - 1)) ? end - 1 : end;
+    }
+
+    /**
+     * Converts the grammar tokens of the given text into styled tokens.
+     */
+    protected void addStyledTokens(String text, IToken[] tokens, List<StyledToken> styledTokens) {
+        for (var token : tokens) {
+            var style = resolveStyle(token.getScopes());
+            var tokenText = text.substring(token.getStartIndex(), token.getEndIndex());
+
+            styledTokens.add(new StyledToken(tokenText, style));
+        }
+    }
+
     /**
      * Resolves the list of scopes associated with a token into style
      * attributes using the current theme of the style provider.
@@ -222,31 +557,30 @@ public class StyleProvider {
             return null;
         }
 
+        var cache = getStyleCache();
+        if (cache == null) {
+            return null;
+        }
+
         // prepare defaults
-        StyleAttributeMap defaults = settings.getMergedDefaults();
+        StyleAttributeMap defaults = cache.getDefaults(settings);
 
-        StyleAttributes attrs = null;
-        for (int i = scopeStack.size() - 1; i >= 0; i--) { // most specific scope is the last one
-            var scope = scopeStack.get(i);
-            attrs = theme.match(scope);
-            if (attrs != null && !StyleAttributes.NO_STYLE.equals(attrs)) {
-                break;
-            }
-        }
+        StyleAttributes attrs = cache.getScopeMatcher().match(theme, scopeStack);
 
         // if no styles are found, use defaults
-        if (attrs == null || StyleAttributes.NO_STYLE.equals(attrs)) {
+        if (attrs == null) {
             return defaults;
         }
 
-        var cachedStyle = styleCache.get(attrs);
-        if (cachedStyle != null) {
-            return cachedStyle;
-        }
-
-        var style = settings.resolve(attrs);
-        styleCache.put(attrs, style);
+        return cache.get(attrs, settings);
+    }
 
-        return style;
+    /**
+     * Returns the canonical theme default style, or {@code null} if the theme is not set.
+     */
+    protected @Nullable StyleAttributeMap getDefaultStyle() {
+        var settings = getThemeSettings();
+        var cache = getStyleCache();
+        return settings != null && cache != null ? cache.getDefaults(settings) : null;
     }
 }
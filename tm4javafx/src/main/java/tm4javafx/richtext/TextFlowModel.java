@@ -3,6 +3,7 @@
 package tm4javafx.richtext;
 
 import java.util.ArrayList;
+import java.util.List;
 import javafx.beans.binding.Bindings;
 import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleObjectProperty;
@@ -20,6 +21,8 @@ import org.jspecify.annotations.Nullable;
  */
 public class TextFlowModel extends RichTextModel {
 
+    protected @Nullable ThemeStylesheet stylesheet;
+
     /**
      * Creates a new {@code TextFlow} model.
      */
@@ -30,6 +33,7 @@ public class TextFlowModel extends RichTextModel {
     protected void init() {
         textProperty().subscribe(val -> onTextContentChanged());
         styleProviderProperty().subscribe(this::onTextContentChanged);
+        highlightingPolicyProperty().subscribe(this::onTextContentChanged);
         textFlowProperty().subscribe(this::onTextFlowChanged);
     }
 
@@ -81,18 +85,30 @@ public class TextFlowModel extends RichTextModel {
 
     //*************************************************************************
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
     protected void onTextContentChanged() {
-        var content = text.get();
+        var content = getContent();
         var provider = styleProvider.get();
 
         if (content == null || provider == null) {
+            appendable = false;
             getStyledText().clear();
             return;
         }
 
+        String[] lines = content.split(LINE_SPLIT_PATTERN);
+        var mode = updateHighlightingMode(content.length(), lines.length);
+
         var styledTextNodes = new ArrayList<Text>();
-        for (var line : content.split(LINE_SPLIT_PATTERN)) {
-            var tokens = provider.tokenize(line);
+        stylesheet = provider.isStyleClassesEnabled() ? provider.getStylesheet() : null;
+        var cached = tokenizeCached(provider, lines, mode);
+        provider.setState(null);
+        for (int i = 0; i < lines.length; i++) {
+            var line = lines[i];
+            var tokens = cached != null ? cached.get(i) : provider.tokenize(line, mode);
 
             for (var token : tokens) {
                 var textNode = new Text(token.text());
@@ -106,9 +122,36 @@ public class TextFlowModel extends RichTextModel {
             }
         }
 
+        updateAppendState(content, provider.getState(), cached == null);
         styledText.setAll(styledTextNodes);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void onTextAppended(StyleProvider provider, List<String> lines) {
+        var mode = getHighlightingMode();
+        var styledTextNodes = new ArrayList<Text>();
+        for (var line : lines) {
+            var tokens = provider.tokenize(line, mode);
+
+            for (var token : tokens) {
+                var textNode = new Text(token.text());
+                applyStyles(textNode, token.style());
+                styledTextNodes.add(textNode);
+            }
+
+            var last = !styledTextNodes.isEmpty() ? styledTextNodes.getLast()
+                : !styledText.isEmpty() ? styledText.getLast() : null;
+            if (last != null) {
+                last.setText(last.getText() + "\n");
+            }
+        }
+
+        styledText.addAll(styledTextNodes);
+    }
+
     protected void onTextFlowChanged(@Nullable TextFlow old, @Nullable TextFlow val) {
         if (old != null) {
             Bindings.unbindContent(old.getChildren(), readOnlyStyledText);
@@ -123,6 +166,12 @@ public class TextFlowModel extends RichTextModel {
             return;
         }
 
+        var styleClasses = stylesheet != null ? stylesheet.getStyleClasses(style) : null;
+        if (styleClasses != null) {
+            textNode.getStyleClass().addAll(styleClasses);
+            return;
+        }
+
         if (style.getTextColor() != null) {
             textNode.setFill(style.getTextColor());
         }
@@ -58,6 +58,7 @@ public class ThemeSettings {
     protected final Map<String, String> editorColors;
     protected final Map<String, @Nullable String> cache = new HashMap<>();
     protected @Nullable StyleAttributeMap mergedDefaults;
+    protected @Nullable ThemeStylesheet stylesheet;
 
     protected ThemeSettings(List<String> colorMap,
                             StyleAttributes defaults,
@@ -105,7 +106,8 @@ public class ThemeSettings {
             styleBuilder.setStrikeThrough(defaults.isStrikethrough());
         }
 
-        return styleBuilder.build();
+        mergedDefaults = styleBuilder.build();
+        return mergedDefaults;
     }
 
     /**
@@ -205,12 +207,28 @@ public class ThemeSettings {
     /**
      * Converts the theme-specific {@link StyleAttributes} to the rich text
      * specific {@link StyleAttributeMap}.
+     * <p>
+     * The result is not cached, use {@link StyleCache#get(StyleAttributes, ThemeSettings)}
+     * to obtain the canonical style instance.
      */
     public StyleAttributeMap resolve(StyleAttributes attrs) {
         var defaults = getMergedDefaults();
         return StyleHelper.toStyleAttributeMap(attrs, colorMap, defaults.getBackground(), defaults.getTextColor());
     }
 
+    /**
+     * Returns the theme compiled into a stylesheet with CSS style classes.
+     * The stylesheet is compiled on the first call and cached.
+     * <p>
+     * See {@link ThemeStylesheet} for more information.
+     */
+    public ThemeStylesheet getStylesheet() {
+        if (stylesheet == null) {
+            stylesheet = new ThemeStylesheet(this);
+        }
+        return stylesheet;
+    }
+
     //*************************************************************************
 
     /**
@@ -0,0 +1,210 @@
+/* SPDX-License-Identifier: MIT */
+
+package tm4javafx.richtext;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javafx.scene.paint.Color;
+import jfx.incubator.scene.control.richtext.model.StyleAttributeMap;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * A theme compiled into a stylesheet with CSS style classes.
+ * <p>
+ * Instead of carrying its own {@link StyleAttributeMap}, a styled segment can reference
+ * the style classes of the compiled stylesheet. The style classes are composable:
+ * one text color class per theme color and one class per font style, e.g.
+ * {@code "tm-fg-3 tm-bold"}, so the stylesheet is compiled once per theme and doesn't
+ * depend on the document content.
+ * <p>
+ * The color classes are indexes into the color list of a particular theme, so the
+ * same class name refers to unrelated colors in another theme. After switching the
+ * theme, the stylesheet must be replaced and the segments resolved again, e.g. by
+ * refreshing the model.
+ * <p>
+ * Style classes can't express a background that differs from the theme default,
+ * because text segments have no background. Such styles are reported as not
+ * representable and should be applied as inline attributes.
+ * <p>
+ * The stylesheet is obtained via {@link ThemeSettings#getStylesheet()} and applied
+ * by {@link StyleHelper#applyThemeSettings}.
+ */
+public class ThemeStylesheet {
+
+    public static final String STYLE_CLASS_PREFIX = "tm-";
+    public static final String FOREGROUND_CLASS_PREFIX = STYLE_CLASS_PREFIX + "fg-";
+    public static final String BOLD_CLASS = STYLE_CLASS_PREFIX + "bold";
+    public static final String ITALIC_CLASS = STYLE_CLASS_PREFIX + "italic";
+    public static final String UNDERLINE_CLASS = STYLE_CLASS_PREFIX + "underline";
+    public static final String STRIKETHROUGH_CLASS = STYLE_CLASS_PREFIX + "strikethrough";
+
+    private static final String[] NO_CLASSES = new String[0];
+    private static final String[] NOT_REPRESENTABLE = new String[0];
+
+    protected final ThemeSettings settings;
+    protected final List<Color> colors = new ArrayList<>();
+    protected final Map<Color, Integer> colorIndex = new HashMap<>();
+    // the colors are fixed once compiled, so the lookups need no locking
+    protected final Map<StyleAttributeMap, String[]> styleClasses = new ConcurrentHashMap<>();
+    protected final Color defaultBackground;
+    protected final String css;
+    protected final String url;
+
+    /**
+     * Compiles the stylesheet for the given theme settings.
+     */
+    public ThemeStylesheet(ThemeSettings settings) {
+        this.settings = settings;
+
+        for (var value : settings.getColorMap()) {
+            addColor(value);
+        }
+        addColor(settings.getForegroundColor());
+
+        this.defaultBackground = Color.web(settings.getBackgroundColor());
+        this.css = compile();
+        this.url = "data:text/css," + css;
+    }
+
+    /**
+     * Returns the theme settings the stylesheet has been compiled from.
+     */
+    public ThemeSettings getSettings() {
+        return settings;
+    }
+
+    /**
+     * Returns the theme colors referenced by the text color style classes,
+     * the list index is the style class suffix.
+     */
+    public List<Color> getColors() {
+        return Collections.unmodifiableList(colors);
+    }
+
+    /**
+     * Returns the compiled stylesheet source.
+     */
+    public String getCss() {
+        return css;
+    }
+
+    /**
+     * Returns the compiled stylesheet as a data URL that can be added to
+     * the {@code Parent} stylesheets.
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Returns the style class names that are equivalent to the given style,
+     * or {@code null} if the style can't be represented by style classes.
+     * The returned array must not be modified.
+     */
+    public String @Nullable [] getStyleClasses(@Nullable StyleAttributeMap style) {
+        if (style == null) {
+            return NO_CLASSES;
+        }
+
+        var names = styleClasses.computeIfAbsent(style, this::toStyleClasses);
+        return names != NOT_REPRESENTABLE ? names : null;
+    }
+
+    //*************************************************************************
+
+    protected String[] toStyleClasses(StyleAttributeMap style) {
+        var background = style.getBackground();
+        if (background != null && !background.equals(defaultBackground)) {
+            return NOT_REPRESENTABLE;
+        }
+
+        var names = new ArrayList<String>(3);
+
+        var foreground = style.getTextColor();
+        if (foreground != null) {
+            var index = colorIndex.get(foreground);
+            if (index == null) {
+                return NOT_REPRESENTABLE;
+            }
+            names.add(FOREGROUND_CLASS_PREFIX + index);
+        }
+
+        if (style.isBold()) {
+            names.add(BOLD_CLASS);
+        }
+        if (style.isItalic()) {
+            names.add(ITALIC_CLASS);
+        }
+        if (style.isUnderline()) {
+            names.add(UNDERLINE_CLASS);
+        }
+        if (style.isStrikeThrough()) {
+            names.add(STRIKETHROUGH_CLASS);
+        }
+
+        return names.isEmpty() ? NO_CLASSES : names.toArray(String[]::new);
+    }
+
+    protected String compile() {
+        var rules = new ArrayList<String>();
+
+        rules.add(compileDefaultColors(settings.getBackgroundColor(), settings.getForegroundColor()));
+
+        String lineHighlight = settings.getSelectionBackgroundColor();
+        if (lineHighlight != null) {
+            rules.add("""
+                .rich-text-area .content .selection-highlight,
+                .rich-text-area .content .caret-line {
+                   -fx-fill: %s;
+                }""".formatted(lineHighlight));
+        }
+
+        for (int i = 0; i < colors.size(); i++) {
+            var color = StyleHelper.toCssColor(colors.get(i));
+            rules.add(".%s%d { -fx-fill: %s; }".formatted(FOREGROUND_CLASS_PREFIX, i, color));
+        }
+
+        rules.add(".%s { -fx-font-weight: bold; }".formatted(BOLD_CLASS));
+        rules.add(".%s { -fx-font-style: italic; }".formatted(ITALIC_CLASS));
+        rules.add(".%s { -fx-underline: true; }".formatted(UNDERLINE_CLASS));
+        rules.add(".%s { -fx-strikethrough: true; }".formatted(STRIKETHROUGH_CLASS));
+
+        return String.join("\n", rules);
+    }
+
+    /**
+     * Returns the rules that apply the theme default colors to the rich text controls.
+     */
+    static String compileDefaultColors(String background, String foreground) {
+        return """
+            .rich-text-area .content,
+            .code-area .left-side {
+                -fx-background-color: %s;
+            }
+            .rich-text-area .left-side .label {
+                -fx-text-fill: %s;
+            }""".formatted(background, foreground);
+    }
+
+    private void addColor(@Nullable String value) {
+        if (value == null || value.isEmpty()) {
+            return;
+        }
+
+        Color color;
+        try {
+            color = Color.web(value);
+        } catch (IllegalArgumentException e) {
+            return; // not a valid color, no style will reference it
+        }
+
+        if (!colorIndex.containsKey(color)) {
+            colorIndex.put(color, colors.size());
+            colors.add(color);
+        }
+    }
+}